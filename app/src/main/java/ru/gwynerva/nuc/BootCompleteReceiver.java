@@ -8,6 +8,9 @@ public class BootCompleteReceiver extends BroadcastReceiver {
     @Override
     public void onReceive(Context context, Intent intent) {
         if (Intent.ACTION_BOOT_COMPLETED.equals(intent.getAction())) {
+            // Alarms are cleared on reboot, arm the pause expiry again even if the service start is delayed
+            ProtectionStateRepository.getInstance(context).checkPauseExpiration();
+
             Intent interceptorService = new Intent(context, InterceptCallService.class);
             context.startService(interceptorService);
         }
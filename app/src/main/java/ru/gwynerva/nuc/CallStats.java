@@ -0,0 +1,308 @@
+package ru.gwynerva.nuc;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.TimeZone;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Screening decision counters shared by the service and the UI.
+//
+// Totals are atomic counters that can be read at any time without touching the disk.
+// Next to them there are rings of hourly and daily buckets, split by decision reason, for trends.
+// Everything is written to a small binary file in batches, at most once per FLUSH_DELAY.
+// Rejection counters are also published to ProtectionStateRepository for the UI.
+//
+// The file is read on the stats thread, so getInstance() is cheap on the main thread. Recording and
+// reading wait until it has been read, the service gets the instance early to keep that off calls.
+public final class CallStats {
+    private static final String TAG = "NUC Call Stats";
+
+    // Stored by ordinal, new reasons go to the end.
+    // DEADLINE calls were allowed because screening did not decide them in time.
+    public enum Reason { NOT_ACTIVE, CONTACT, RECALL, REJECTED, OTHER, DEADLINE }
+
+    private static final int REASONS = Reason.values().length;
+    public static final int HOURS = 48;
+    public static final int DAYS = 30;
+
+    private static final long HOUR = 60 * 60 * 1000;
+    private static final long DAY = 24 * HOUR;
+
+    private static final int FILE_VERSION = 1;
+    private static final long FLUSH_DELAY = 10000;
+
+    private static CallStats instance;
+
+    private final AtomicLongArray totals = new AtomicLongArray(REASONS);
+
+    // buckets[slot * REASONS + reason], slot = period number % ring size. Guarded by this.
+    private final long[] hourly = new long[HOURS * REASONS];
+    private final long[] daily = new long[DAYS * REASONS];
+    // Period number of the newest bucket of each ring
+    private long lastHour;
+    private long lastDay;
+
+    private final ProtectionStateRepository stateRepository;
+    private final AtomicFile file;
+    private final Handler flushHandler;
+    private final Runnable flushRunnable = this::flush;
+    private boolean flushScheduled = false;
+    private final CountDownLatch loaded = new CountDownLatch(1);
+
+    public static synchronized CallStats getInstance(Context context) {
+        if (instance == null) {
+            instance = new CallStats(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private CallStats(Context context) {
+        stateRepository = ProtectionStateRepository.getInstance(context);
+        file = new AtomicFile(new File(context.getFilesDir(), "stats.bin"));
+
+        HandlerThread thread = new HandlerThread("nuc-stats", Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        flushHandler = new Handler(thread.getLooper());
+
+        long now = System.currentTimeMillis();
+        lastHour = now / HOUR;
+        lastDay = localDay(now);
+
+        flushHandler.post(() -> {
+            try {
+                if (!load()) {
+                    // Carry over the counter kept in preferences by older versions
+                    SharedPreferences preferences = context.getSharedPreferences(Preferences.NAME, Context.MODE_PRIVATE);
+                    totals.set(Reason.REJECTED.ordinal(), preferences.getInt(Preferences.KEY_REJECTED_CALLS, 0));
+                }
+            } finally {
+                // Nothing must wait forever, the counters start from what could be read
+                loaded.countDown();
+            }
+            publish(System.currentTimeMillis());
+        });
+    }
+
+    // Blocks until the file has been read, only the first access after the process started may wait
+    private void awaitLoaded() {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                loaded.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    //
+    // Recording
+    //
+
+    public void record(Reason reason, long time) {
+        awaitLoaded();
+        totals.incrementAndGet(reason.ordinal());
+
+        synchronized (this) {
+            advance(time);
+            hourly[(int) ((time / HOUR) % HOURS) * REASONS + reason.ordinal()]++;
+            daily[(int) (localDay(time) % DAYS) * REASONS + reason.ordinal()]++;
+
+            if (!flushScheduled) {
+                flushScheduled = true;
+                flushHandler.postDelayed(flushRunnable, FLUSH_DELAY);
+            }
+        }
+
+        if (reason == Reason.REJECTED) {
+            publish(time);
+        }
+    }
+
+    // Called by the UI when it comes back, today's counter starts over at midnight without any call.
+    // Published from the stats thread once the file has been read.
+    public void publishCounters(long now) {
+        flushHandler.post(() -> publish(now));
+    }
+
+    // Writes the counters now instead of after FLUSH_DELAY, for when the process may go away
+    public void flushNow() {
+        flushHandler.removeCallbacks(flushRunnable);
+        flushHandler.post(flushRunnable);
+    }
+
+    private void publish(long now) {
+        stateRepository.setCounters(getTotal(Reason.REJECTED), getDaily(Reason.REJECTED, 0, now));
+    }
+
+    // Clear the buckets that were skipped since the last record, guarded by this
+    private void advance(long time) {
+        long hour = time / HOUR;
+        for (long h = lastHour + 1; h <= hour && h <= lastHour + HOURS; h++) {
+            clearSlot(hourly, (int) (h % HOURS));
+        }
+        lastHour = Math.max(lastHour, hour);
+
+        long day = localDay(time);
+        for (long d = lastDay + 1; d <= day && d <= lastDay + DAYS; d++) {
+            clearSlot(daily, (int) (d % DAYS));
+        }
+        lastDay = Math.max(lastDay, day);
+    }
+
+    private static void clearSlot(long[] buckets, int slot) {
+        for (int reason = 0; reason < REASONS; reason++) {
+            buckets[slot * REASONS + reason] = 0;
+        }
+    }
+
+    private static long localDay(long time) {
+        return (time + TimeZone.getDefault().getOffset(time)) / DAY;
+    }
+
+    //
+    // Reading
+    //
+
+    public long getTotal(Reason reason) {
+        awaitLoaded();
+        return totals.get(reason.ordinal());
+    }
+
+    // Calls with the reason during the hour hoursAgo hours before now, 0 is the current hour
+    public long getHourly(Reason reason, int hoursAgo, long now) {
+        awaitLoaded();
+        synchronized (this) {
+            advance(now);
+            if (hoursAgo < 0 || hoursAgo >= HOURS) {
+                return 0;
+            }
+            return hourly[(int) ((now / HOUR - hoursAgo) % HOURS) * REASONS + reason.ordinal()];
+        }
+    }
+
+    // Calls with the reason during the local day daysAgo days before now, 0 is today
+    public long getDaily(Reason reason, int daysAgo, long now) {
+        awaitLoaded();
+        synchronized (this) {
+            advance(now);
+            if (daysAgo < 0 || daysAgo >= DAYS) {
+                return 0;
+            }
+            return daily[(int) ((localDay(now) - daysAgo) % DAYS) * REASONS + reason.ordinal()];
+        }
+    }
+
+    //
+    // Persistence
+    //
+
+    private boolean load() {
+        if (!file.getBaseFile().exists()) {
+            return false;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(file.openRead()))) {
+            // Files written before a reason was added have fewer of them, the new ones start at 0
+            int savedReasons;
+            if (in.readInt() != FILE_VERSION || (savedReasons = in.readInt()) > REASONS || savedReasons < 1
+                    || in.readInt() != HOURS || in.readInt() != DAYS) {
+                Log.w(TAG, "Unknown stats file layout, starting over.");
+                return false;
+            }
+
+            for (int i = 0; i < savedReasons; i++) {
+                totals.set(i, in.readLong());
+            }
+
+            synchronized (this) {
+                long savedHour = in.readLong();
+                long savedDay = in.readLong();
+                for (int slot = 0; slot < HOURS; slot++) {
+                    for (int reason = 0; reason < savedReasons; reason++) {
+                        hourly[slot * REASONS + reason] = in.readLong();
+                    }
+                }
+                for (int slot = 0; slot < DAYS; slot++) {
+                    for (int reason = 0; reason < savedReasons; reason++) {
+                        daily[slot * REASONS + reason] = in.readLong();
+                    }
+                }
+
+                // Buckets written before now are cleared as time moves past them
+                lastHour = savedHour;
+                lastDay = savedDay;
+                advance(System.currentTimeMillis());
+            }
+            return true;
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to read stats file.", e);
+            return false;
+        }
+    }
+
+    private void flush() {
+        long[] hourlySnapshot;
+        long[] dailySnapshot;
+        long savedHour;
+        long savedDay;
+
+        // Copy under the lock, the screening thread must never wait for the disk
+        synchronized (this) {
+            flushScheduled = false;
+            hourlySnapshot = hourly.clone();
+            dailySnapshot = daily.clone();
+            savedHour = lastHour;
+            savedDay = lastDay;
+        }
+
+        FileOutputStream stream = null;
+        try {
+            stream = file.startWrite();
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+            out.writeInt(FILE_VERSION);
+            out.writeInt(REASONS);
+            out.writeInt(HOURS);
+            out.writeInt(DAYS);
+
+            for (int i = 0; i < REASONS; i++) {
+                out.writeLong(totals.get(i));
+            }
+
+            out.writeLong(savedHour);
+            out.writeLong(savedDay);
+            for (long count : hourlySnapshot) {
+                out.writeLong(count);
+            }
+            for (long count : dailySnapshot) {
+                out.writeLong(count);
+            }
+
+            out.flush();
+            file.finishWrite(stream);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to write stats file.", e);
+            if (stream != null) {
+                file.failWrite(stream);
+            }
+        }
+    }
+}
@@ -1,97 +1,85 @@
 package ru.gwynerva.nuc;
 
-import android.animation.AnimatorSet;
-import android.animation.ArgbEvaluator;
-import android.animation.ObjectAnimator;
 import android.animation.ValueAnimator;
 import android.graphics.Color;
-import android.graphics.drawable.GradientDrawable;
+import android.graphics.drawable.AnimatedVectorDrawable;
 import android.view.View;
-import android.view.animation.AccelerateDecelerateInterpolator;
 
+import androidx.annotation.NonNull;
+
+// Pulsing status circle behind the main screen.
+//
+// The circle and its pulse are the AnimatedVectorDrawable R.drawable.status_circle. Its animators run on
+// the RenderThread, so the pulse keeps going while the UI thread is busy and costs it nothing per frame.
+// The circle is a white radial fade tinted with the state color, so a color transition only changes the
+// tint. Neither animation allocates per frame.
+//
+// The pulse runs only while the animator is started and the view is attached. The owner calls start()
+// and stop() from onStart() and onStop(), detaching the view stops it too.
 public class CircleAnimator {
-    private final View circleView;
-    private AnimatorSet pulseAnimator;
-    private ValueAnimator colorAnimator;
-    private boolean isPulsing = false;
-
     // Define colors for each state
     private static final int COLOR_ACTIVE = Color.parseColor("#4CAF50");   // Green
     private static final int COLOR_PAUSED = Color.parseColor("#FFC107");   // Yellow/Amber
     private static final int COLOR_STOPPED = Color.parseColor("#F44336"); // Red
 
-    // Current color of the circle
-    private int currentColor = COLOR_STOPPED;
+    // The drawable leaves room for the largest pulse, scaling the view back keeps the circle's size
+    private static final float PULSE_MAX_SCALE = 1.1f;
 
-    // Single drawable for the circle
-    private GradientDrawable circleDrawable;
+    private static final int COLOR_DURATION = 500;
 
-    public CircleAnimator(View circleView) {
-        this.circleView = circleView;
-
-        // Setup the single drawable
-        setupCircleDrawable();
+    private final View circleView;
+    private final AnimatedVectorDrawable circleDrawable;
+    private final ValueAnimator colorAnimator;
+    // Tint of the circle, the drawable does not tell
+    private int color;
 
-        // Setup pulse animation
-        setupPulseAnimation();
+    // Color transition, from one state color to another
+    private int fromColor = COLOR_STOPPED;
+    private int toColor = COLOR_STOPPED;
 
-        // Start pulse animation immediately
-        startPulse();
-    }
+    private boolean started = false;
+    private boolean attached;
 
-    // Setup the circle drawable
-    private void setupCircleDrawable() {
-        // Create a new GradientDrawable for the circle
-        circleDrawable = new GradientDrawable();
-        circleDrawable.setShape(GradientDrawable.OVAL);
-        circleDrawable.setGradientType(GradientDrawable.RADIAL_GRADIENT);
-        circleDrawable.setColors(new int[]{ currentColor, 0x00000000 });
-        circleDrawable.setGradientCenter(.5f, .5f);
-        circleView.post(() -> {
-            int size = Math.min(circleView.getWidth(), circleView.getHeight());
-            circleDrawable.setGradientRadius(size / 2f);
-        });
+    public CircleAnimator(View circleView) {
+        this.circleView = circleView;
 
-        // Set the drawable as the background
+        circleDrawable = (AnimatedVectorDrawable) circleView.getContext().getDrawable(R.drawable.status_circle).mutate();
+        setColor(toColor);
         circleView.setBackground(circleDrawable);
-        circleView.setAlpha(.4f);
+        circleView.setScaleX(PULSE_MAX_SCALE);
+        circleView.setScaleY(PULSE_MAX_SCALE);
+
+        colorAnimator = ValueAnimator.ofFloat(0f, 1f);
+        colorAnimator.setDuration(COLOR_DURATION);
+        colorAnimator.addUpdateListener(animator ->
+                setColor(blend(fromColor, toColor, animator.getAnimatedFraction())));
+
+        attached = circleView.isAttachedToWindow();
+        circleView.addOnAttachStateChangeListener(new View.OnAttachStateChangeListener() {
+            @Override
+            public void onViewAttachedToWindow(@NonNull View view) {
+                attached = true;
+                updatePulse();
+            }
+
+            @Override
+            public void onViewDetachedFromWindow(@NonNull View view) {
+                attached = false;
+                updatePulse();
+            }
+        });
     }
 
-    // Setup the pulse animation
-    private void setupPulseAnimation() {
-        ObjectAnimator scaleX = ObjectAnimator.ofFloat(circleView, "scaleX", .8f, 1.1f);
-        ObjectAnimator scaleY = ObjectAnimator.ofFloat(circleView, "scaleY", .8f, 1.1f);
-
-        // Make it slow and smooth - 2 seconds per pulse cycle
-        scaleX.setDuration(2000);
-        scaleY.setDuration(2000);
-
-        // Repeat indefinitely
-        scaleX.setRepeatCount(ObjectAnimator.INFINITE);
-        scaleY.setRepeatCount(ObjectAnimator.INFINITE);
-
-        // Repeat in reverse for smooth back-and-forth
-        scaleX.setRepeatMode(ObjectAnimator.REVERSE);
-        scaleY.setRepeatMode(ObjectAnimator.REVERSE);
-
-        // Use a smooth interpolation
-        scaleX.setInterpolator(new AccelerateDecelerateInterpolator());
-        scaleY.setInterpolator(new AccelerateDecelerateInterpolator());
-
-        // Combine the animations
-        pulseAnimator = new AnimatorSet();
-        pulseAnimator.playTogether(scaleX, scaleY);
+    // Called from the activity's onStart()
+    public void start() {
+        started = true;
+        updatePulse();
     }
 
-    // Start the pulse animation - ensure it's always running
-    public void startPulse() {
-        if (!isPulsing && pulseAnimator != null) {
-            // Make sure we start from normal scale
-            circleView.setScaleX(1f);
-            circleView.setScaleY(1f);
-            pulseAnimator.start();
-            isPulsing = true;
-        }
+    // Called from the activity's onStop(), nothing is animated while the activity is not visible
+    public void stop() {
+        started = false;
+        updatePulse();
     }
 
     // Transition to active state with animation
@@ -109,28 +97,53 @@ public class CircleAnimator {
         animateColor(COLOR_STOPPED);
     }
 
-    // Animate color transition
-    private void animateColor(int targetColor) {
-        // Cancel any ongoing animation
-        if (colorAnimator != null && colorAnimator.isRunning()) {
-            colorAnimator.cancel();
+    private void updatePulse() {
+        boolean running = started && attached;
+        if (running) {
+            if (!circleDrawable.isRunning()) {
+                circleDrawable.start();
+            }
+        } else {
+            // The drawable cannot pause, the pulse starts over when the circle is shown again
+            if (circleDrawable.isRunning()) {
+                circleDrawable.stop();
+            }
+            // A transition nobody sees jumps to its end
+            if (colorAnimator.isStarted()) {
+                colorAnimator.end();
+            }
         }
+    }
 
-        // Create color animator
-        colorAnimator = ValueAnimator.ofObject(new ArgbEvaluator(), currentColor, targetColor);
-        colorAnimator.setDuration(500); // Half second transition
-        colorAnimator.addUpdateListener(animator -> {
-            int color = (int) animator.getAnimatedValue();
-            circleDrawable.setColors(new int[]{ color, 0x00000000 });
-        });
+    // Animate color transition, starting from the color shown now
+    private void animateColor(int targetColor) {
+        if (targetColor == toColor) {
+            return;
+        }
+        fromColor = color;
+        toColor = targetColor;
 
-        // Start the animation
-        colorAnimator.start();
+        if (started && attached) {
+            colorAnimator.start();
+        } else {
+            colorAnimator.cancel();
+            setColor(targetColor);
+        }
+    }
 
-        // Update current color
-        currentColor = targetColor;
+    private void setColor(int color) {
+        if (this.color == color) {
+            return;
+        }
+        this.color = color;
+        circleDrawable.setTint(color);
+    }
 
-        // Ensure pulse is running
-        startPulse();
+    // Per channel linear blend of two opaque colors
+    private static int blend(int from, int to, float fraction) {
+        int red = Math.round(Color.red(from) + (Color.red(to) - Color.red(from)) * fraction);
+        int green = Math.round(Color.green(from) + (Color.green(to) - Color.green(from)) * fraction);
+        int blue = Math.round(Color.blue(from) + (Color.blue(to) - Color.blue(from)) * fraction);
+        return Color.rgb(red, green, blue);
     }
 }
@@ -0,0 +1,341 @@
+package ru.gwynerva.nuc;
+
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.SystemClock;
+import android.provider.ContactsContract;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+// Keeps all contact numbers in memory so that screening does not have to query the contacts provider.
+// The index is built on its own background thread and kept up to date when contacts change.
+//
+// After the first full build only the changes are read: contacts updated since the last sync and the
+// ones listed in DeletedContacts. The newest timestamp seen is kept as a watermark for the next sync.
+// Changes at the watermark itself are read again, another contact may have changed in the same millisecond.
+// Reading a contact again puts back the same numbers, which the table drops as no change.
+//
+// Every build is saved as a snapshot file. On start the snapshot is mapped and answers lookups right
+// away, the provider is read again a bit later, when it is no longer busy starting up after boot.
+//
+// It is the ContactSource of the screening rules. Until the first build has finished, lookups fall
+// back to a query of the provider.
+public class ContactIndex implements ContactSource {
+    private final String TAG = "NUC Contact Index";
+
+    // Contact changes come in bursts during account sync, sync once they settle
+    private final int REBUILD_DELAY = 1000;
+    // Delay before the snapshot is checked against the provider
+    private final int RECONCILE_DELAY = 10000;
+
+    private static final String[] PHONE_PROJECTION = {
+            ContactsContract.CommonDataKinds.Phone.CONTACT_ID,
+            ContactsContract.CommonDataKinds.Phone.NUMBER,
+            ContactsContract.CommonDataKinds.Phone.NORMALIZED_NUMBER,
+            ContactsContract.CommonDataKinds.Phone.CONTACT_LAST_UPDATED_TIMESTAMP,
+    };
+
+    private static final String[] CONTACT_PROJECTION = {
+            ContactsContract.Contacts._ID,
+            ContactsContract.Contacts.CONTACT_LAST_UPDATED_TIMESTAMP,
+    };
+
+    private static final String[] DELETED_PROJECTION = {
+            ContactsContract.DeletedContacts.CONTACT_ID,
+            ContactsContract.DeletedContacts.CONTACT_DELETED_TIMESTAMP,
+    };
+
+    private final Context context;
+    private final File snapshotFile;
+    // Called on the index thread after the numbers changed
+    private final Runnable changeListener;
+    private HandlerThread thread;
+    private Handler handler;
+    private ContentObserver contactsObserver;
+    private final Runnable syncRunnable = this::sync;
+
+    // Null until the first build has finished
+    private volatile ContactNumberSet numbers;
+    // Dialing rules for telling the same number with a different prefix, -1 if unknown
+    private volatile int region = -1;
+
+    // Used on the index thread only
+    private final ContactKeyTable table = new ContactKeyTable();
+    // Provider time of the newest change already in the table, 0 until the first full build
+    private long watermark = 0;
+    // Reused between contacts while reading a cursor
+    private long[] contactKeys = new long[16];
+
+    public ContactIndex(Context context, Runnable changeListener) {
+        this.context = context.getApplicationContext();
+        this.snapshotFile = new File(context.getFilesDir(), "contacts.bin");
+        this.changeListener = changeListener;
+    }
+
+    public void start() {
+        thread = new HandlerThread("nuc-contacts", Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        handler = new Handler(thread.getLooper());
+
+        contactsObserver = new ContentObserver(handler) {
+            @Override
+            public void onChange(boolean selfChange) {
+                handler.removeCallbacks(syncRunnable);
+                handler.postDelayed(syncRunnable, REBUILD_DELAY);
+            }
+        };
+        context.getContentResolver().registerContentObserver(
+                ContactsContract.AUTHORITY_URI, true, contactsObserver);
+
+        handler.post(this::loadSnapshot);
+    }
+
+    public void stop() {
+        if (contactsObserver != null) {
+            context.getContentResolver().unregisterContentObserver(contactsObserver);
+            contactsObserver = null;
+        }
+        if (thread != null) {
+            thread.quitSafely();
+            thread = null;
+        }
+    }
+
+    // Returns null while the index is not built yet
+    @Nullable
+    public ContactNumberSet getNumbers() {
+        return numbers;
+    }
+
+    // PhoneNumbers.regionIndex() of the country the phone is in
+    public void setRegion(int region) {
+        this.region = region;
+    }
+
+    @Override
+    public boolean isAvailable() {
+        return PermissionState.getInstance(context).isContactsPermissionGranted();
+    }
+
+    // Called on the screening thread, throws if the index is not built and the provider fails
+    @Override
+    public boolean contains(String number) {
+        ContactNumberSet contactNumbers = numbers;
+        if (contactNumbers != null) {
+            return contactNumbers.contains(number, region);
+        }
+
+        // Index is not built yet, ask the contacts provider directly.
+        // Every call gets here until the build is done, one queued build is enough.
+        Handler indexHandler = handler;
+        if (indexHandler != null && !indexHandler.hasCallbacks(syncRunnable)) {
+            indexHandler.post(syncRunnable);
+        }
+
+        Uri lookupUri = Uri.withAppendedPath(
+                ContactsContract.PhoneLookup.CONTENT_FILTER_URI,
+                Uri.encode(number));
+        try (Cursor cursor = context.getContentResolver().query(
+                lookupUri,
+                new String[]{ContactsContract.PhoneLookup._ID},
+                null, null, null)) {
+            return cursor != null && cursor.getCount() > 0;
+        }
+    }
+
+    public void requestRebuild() {
+        if (handler != null) {
+            handler.removeCallbacks(syncRunnable);
+            handler.post(syncRunnable);
+        }
+    }
+
+    private void loadSnapshot() {
+        if (!snapshotFile.exists() || !PermissionState.getInstance(context).isContactsPermissionGranted()) {
+            rebuild();
+            return;
+        }
+
+        try {
+            long startTime = SystemClock.elapsedRealtime();
+            setNumbers(ContactNumberSet.open(snapshotFile));
+            Log.i(TAG, "Mapped snapshot of " + numbers.size() + " numbers in "
+                    + (SystemClock.elapsedRealtime() - startTime) + " ms.");
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to map contacts snapshot, rebuilding.", e);
+            rebuild();
+            return;
+        }
+
+        // Contacts may have changed while the service was not running
+        if (!handler.hasCallbacks(syncRunnable)) {
+            handler.postDelayed(syncRunnable, RECONCILE_DELAY);
+        }
+    }
+
+    private void sync() {
+        // Deleted contacts are only kept for a limited time, older watermarks could miss some
+        if (watermark == 0
+                || System.currentTimeMillis() - watermark >= ContactsContract.DeletedContacts.DAYS_KEPT_MILLISECONDS
+                || !PermissionState.getInstance(context).isContactsPermissionGranted()) {
+            rebuild();
+            return;
+        }
+
+        long startTime = SystemClock.elapsedRealtime();
+        long newWatermark = watermark;
+        int changedContacts = 0;
+        String[] selectionArgs = { Long.toString(watermark) };
+
+        try {
+            try (Cursor cursor = context.getContentResolver().query(
+                    ContactsContract.DeletedContacts.CONTENT_URI, DELETED_PROJECTION,
+                    ContactsContract.DeletedContacts.CONTACT_DELETED_TIMESTAMP + " >= ?", selectionArgs, null)) {
+                while (cursor != null && cursor.moveToNext()) {
+                    table.remove(cursor.getLong(0));
+                    newWatermark = Math.max(newWatermark, cursor.getLong(1));
+                    changedContacts++;
+                }
+            }
+
+            // Contacts left without numbers are not in the phone query, drop the numbers of all updated
+            // contacts and add back the ones that are still there
+            try (Cursor cursor = context.getContentResolver().query(
+                    ContactsContract.Contacts.CONTENT_URI, CONTACT_PROJECTION,
+                    ContactsContract.Contacts.CONTACT_LAST_UPDATED_TIMESTAMP + " >= ?", selectionArgs, null)) {
+                while (cursor != null && cursor.moveToNext()) {
+                    table.remove(cursor.getLong(0));
+                    newWatermark = Math.max(newWatermark, cursor.getLong(1));
+                    changedContacts++;
+                }
+            }
+
+            try (Cursor cursor = context.getContentResolver().query(
+                    ContactsContract.CommonDataKinds.Phone.CONTENT_URI, PHONE_PROJECTION,
+                    ContactsContract.CommonDataKinds.Phone.CONTACT_LAST_UPDATED_TIMESTAMP + " >= ?", selectionArgs,
+                    ContactsContract.CommonDataKinds.Phone.CONTACT_ID)) {
+                if (cursor != null) {
+                    newWatermark = Math.max(newWatermark, readPhones(cursor));
+                }
+            }
+        } catch (Exception e) {
+            // The table may be half updated, start over
+            Log.e(TAG, "Failed to read contact changes.", e);
+            watermark = 0;
+            requestRebuild();
+            return;
+        }
+
+        watermark = newWatermark;
+        if (!table.hasChanges()) {
+            return;
+        }
+
+        publish(table.commit());
+        Log.i(TAG, "Synced " + changedContacts + " changed contacts in "
+                + (SystemClock.elapsedRealtime() - startTime) + " ms.");
+    }
+
+    private void rebuild() {
+        table.clear();
+        watermark = 0;
+
+        if (!PermissionState.getInstance(context).isContactsPermissionGranted()) {
+            Log.i(TAG, "No contacts permission, index is not built.");
+            // Do not keep contact numbers around without the permission to read them
+            setNumbers(null);
+            snapshotFile.delete();
+            return;
+        }
+
+        long startTime = SystemClock.elapsedRealtime();
+        // Changes made while reading are picked up by the next sync
+        long newWatermark = System.currentTimeMillis();
+
+        try (Cursor cursor = context.getContentResolver().query(
+                ContactsContract.CommonDataKinds.Phone.CONTENT_URI,
+                PHONE_PROJECTION, null, null, ContactsContract.CommonDataKinds.Phone.CONTACT_ID)) {
+            if (cursor == null) {
+                return;
+            }
+            readPhones(cursor);
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to read contact numbers.", e);
+            table.clear();
+            return;
+        }
+
+        ContactNumberSet previous = numbers;
+        ContactNumberSet built = table.commit();
+        watermark = newWatermark;
+        Log.i(TAG, "Indexed " + built.size() + " numbers of " + table.contactCount() + " contacts in "
+                + (SystemClock.elapsedRealtime() - startTime) + " ms.");
+
+        if (previous == null || !previous.hasSameNumbers(built)) {
+            publish(built);
+        } else {
+            // Same numbers, no need to tell anybody
+            numbers = built;
+        }
+    }
+
+    // Puts the numbers of every contact in the cursor into the table, rows must be ordered by contact.
+    // Returns the newest update time seen.
+    private long readPhones(Cursor cursor) {
+        long newest = 0;
+        long contactId = -1;
+        int count = 0;
+
+        while (cursor.moveToNext()) {
+            long id = cursor.getLong(0);
+            if (id != contactId) {
+                if (contactId != -1) {
+                    table.put(contactId, ContactKeyTable.sortedUnique(contactKeys, count));
+                }
+                contactId = id;
+                count = 0;
+            }
+
+            if (count + 2 > contactKeys.length) {
+                contactKeys = Arrays.copyOf(contactKeys, contactKeys.length * 2);
+            }
+            // PhoneLookup matches both the number as entered and its normalized form
+            contactKeys[count++] = encode(cursor.getString(1));
+            contactKeys[count++] = encode(cursor.getString(2));
+            newest = Math.max(newest, cursor.getLong(3));
+        }
+
+        if (contactId != -1) {
+            table.put(contactId, ContactKeyTable.sortedUnique(contactKeys, count));
+        }
+        return newest;
+    }
+
+    private static long encode(@Nullable String number) {
+        return number != null ? ContactNumberSet.encode(number) : 0;
+    }
+
+    private void setNumbers(@Nullable ContactNumberSet numbers) {
+        this.numbers = numbers;
+        changeListener.run();
+    }
+
+    private void publish(ContactNumberSet built) {
+        setNumbers(built);
+        try {
+            built.writeTo(snapshotFile);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to save contacts snapshot.", e);
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package ru.gwynerva.nuc;
+
+import android.util.LongSparseArray;
+
+import java.util.Arrays;
+
+// Contact number keys grouped by contact, so that a change to a few contacts does not mean reading all of them.
+//
+// All keys are also kept in one sorted array with repeats, one entry for every contact that has the
+// number. Changes are collected with put() and remove() and merged into that array in a single pass
+// by commit(), a number leaves the set only when the last contact that had it is gone.
+//
+// Not thread safe, ContactIndex uses it on its own thread only.
+final class ContactKeyTable {
+    static final long[] NO_KEYS = new long[0];
+
+    // Contact id to its sorted unique keys
+    private final LongSparseArray<long[]> contacts = new LongSparseArray<>();
+    // Sorted, with repeats
+    private long[] keys = NO_KEYS;
+
+    // Changes since the last commit
+    private long[] removed = new long[64];
+    private int removedCount = 0;
+    private long[] added = new long[64];
+    private int addedCount = 0;
+
+    void clear() {
+        contacts.clear();
+        keys = NO_KEYS;
+        removedCount = 0;
+        addedCount = 0;
+    }
+
+    int contactCount() {
+        return contacts.size();
+    }
+
+    // Replaces the keys of the contact, keys must be sorted and unique, empty removes the contact
+    void put(long contactId, long[] contactKeys) {
+        long[] previous = contacts.get(contactId);
+        if (previous != null && Arrays.equals(previous, contactKeys)) {
+            return;
+        }
+
+        if (previous != null) {
+            removed = append(removed, removedCount, previous);
+            removedCount += previous.length;
+        }
+        if (contactKeys.length == 0) {
+            contacts.remove(contactId);
+            return;
+        }
+
+        contacts.put(contactId, contactKeys);
+        added = append(added, addedCount, contactKeys);
+        addedCount += contactKeys.length;
+    }
+
+    void remove(long contactId) {
+        put(contactId, NO_KEYS);
+    }
+
+    boolean hasChanges() {
+        cancelPending();
+        return removedCount > 0 || addedCount > 0;
+    }
+
+    // Applies the collected changes and returns the resulting set
+    ContactNumberSet commit() {
+        cancelPending();
+
+        // After cancelling, every removed key is in keys, as many times as it is removed
+        long[] merged = new long[keys.length - removedCount + addedCount];
+        int r = 0;
+        int a = 0;
+        int out = 0;
+        for (long key : keys) {
+            if (r < removedCount && removed[r] == key) {
+                r++;
+                continue;
+            }
+            while (a < addedCount && added[a] < key) {
+                merged[out++] = added[a++];
+            }
+            merged[out++] = key;
+        }
+        while (a < addedCount) {
+            merged[out++] = added[a++];
+        }
+
+        keys = merged;
+        removedCount = 0;
+        addedCount = 0;
+        return ContactNumberSet.fromSortedKeys(keys);
+    }
+
+    // Sorts the changes and drops keys that were both removed and added. A contact that was updated without
+    // changing its numbers is removed and added back, and a key added and removed again before a commit
+    // is not in the keys array yet.
+    private void cancelPending() {
+        Arrays.sort(removed, 0, removedCount);
+        Arrays.sort(added, 0, addedCount);
+
+        int r = 0;
+        int a = 0;
+        int removedOut = 0;
+        int addedOut = 0;
+        while (r < removedCount || a < addedCount) {
+            if (a == addedCount || (r < removedCount && removed[r] < added[a])) {
+                removed[removedOut++] = removed[r++];
+            } else if (r == removedCount || added[a] < removed[r]) {
+                added[addedOut++] = added[a++];
+            } else {
+                r++;
+                a++;
+            }
+        }
+        removedCount = removedOut;
+        addedCount = addedOut;
+    }
+
+    // Sorts the first count keys and drops repeats and zeros, the array is reused
+    static long[] sortedUnique(long[] keys, int count) {
+        if (count == 0) {
+            return NO_KEYS;
+        }
+
+        Arrays.sort(keys, 0, count);
+        int unique = 0;
+        for (int i = 0; i < count; i++) {
+            if (keys[i] != 0 && (unique == 0 || keys[i] != keys[unique - 1])) {
+                keys[unique++] = keys[i];
+            }
+        }
+        return unique == 0 ? NO_KEYS : Arrays.copyOf(keys, unique);
+    }
+
+    private static long[] append(long[] target, int size, long[] values) {
+        if (size + values.length > target.length) {
+            target = Arrays.copyOf(target, Math.max(target.length * 2, size + values.length));
+        }
+        System.arraycopy(values, 0, target, size, values.length);
+        return target;
+    }
+}
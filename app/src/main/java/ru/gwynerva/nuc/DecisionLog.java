@@ -0,0 +1,246 @@
+package ru.gwynerva.nuc;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.SecureRandom;
+
+// Append-only log of screening decisions, kept because rejected calls skip the system call log.
+//
+// Records have a fixed size and live in a memory mapped ring, so the file never grows past CAPACITY
+// records and the oldest ones are overwritten. The screening thread only puts records into a small
+// staging buffer, a background thread copies them into the file and syncs it once per COMMIT_DELAY.
+//
+// Numbers are never stored, only a salted fingerprint that stays the same for the same number.
+// There are few enough phone numbers to find the one behind a fingerprint by trying them all, so
+// the salt is kept in a file of its own that the caller puts out of backups. The log alone does not
+// reveal numbers, the log together with the salt does.
+public final class DecisionLog {
+    private static final String TAG = "NUC Decision Log";
+
+    public static final byte VERDICT_ALLOW = 1;
+    public static final byte VERDICT_REJECT = 2;
+
+    private static final int MAGIC = 0x4e55434c; // "NUCL"
+    // Version 1 kept the salt in the header
+    private static final int VERSION = 2;
+    public static final int CAPACITY = 8192;
+
+    // Header: magic, version, capacity, unused, unused, written
+    private static final int HEADER_SIZE = 4 * 4 + 8 + 8;
+    private static final int OFFSET_UNUSED = 16;
+    private static final int OFFSET_WRITTEN = 24;
+    // Record: time, fingerprint, latency in microseconds, verdict, reason, 2 bytes padding
+    private static final int RECORD_SIZE = 8 + 8 + 4 + 1 + 1 + 2;
+
+    private static final int STAGING_CAPACITY = 256;
+    private static final long COMMIT_DELAY = 1000;
+
+    private final MappedByteBuffer buffer;
+    private final long salt;
+    // Records ever written to the file, the next one goes to written % CAPACITY
+    private volatile long written;
+
+    // Staged records, guarded by this
+    private final long[] stagedTimes = new long[STAGING_CAPACITY];
+    private final long[] stagedFingerprints = new long[STAGING_CAPACITY];
+    private final int[] stagedLatencies = new int[STAGING_CAPACITY];
+    private final byte[] stagedVerdicts = new byte[STAGING_CAPACITY];
+    private final byte[] stagedReasons = new byte[STAGING_CAPACITY];
+    private int staged = 0;
+    private long dropped = 0;
+    private boolean commitScheduled = false;
+
+    private final HandlerThread thread;
+    private final Handler handler;
+    private final Runnable commitRunnable = this::commit;
+
+    // Maps the file, must not be called on the main thread.
+    // The salt file should be in Context.getNoBackupFilesDir(), the log may be anywhere.
+    public static DecisionLog open(File file, File saltFile) throws IOException {
+        return new DecisionLog(file, new AtomicFile(saltFile));
+    }
+
+    private DecisionLog(File file, AtomicFile saltFile) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw");
+             FileChannel channel = raf.getChannel()) {
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) CAPACITY * RECORD_SIZE);
+        }
+
+        Long savedSalt = readSalt(saltFile);
+        // A negative count comes from a damaged file, records would be written into the header
+        if (savedSalt != null && buffer.getInt(0) == MAGIC && buffer.getInt(4) == VERSION && buffer.getInt(8) == CAPACITY
+                && buffer.getLong(OFFSET_WRITTEN) >= 0) {
+            salt = savedSalt;
+            written = buffer.getLong(OFFSET_WRITTEN);
+        } else {
+            // Fingerprints made with another salt do not match new ones, e.g. after a restore from a backup.
+            // A damaged header is started over too.
+            salt = savedSalt != null ? savedSalt : createSalt(saltFile);
+            written = 0;
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            buffer.putInt(8, CAPACITY);
+            buffer.putLong(OFFSET_UNUSED, 0);
+            buffer.putLong(OFFSET_WRITTEN, 0);
+            buffer.force();
+        }
+
+        thread = new HandlerThread("nuc-log", Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        handler = new Handler(thread.getLooper());
+    }
+
+    // Null if there is no salt yet
+    private static Long readSalt(AtomicFile saltFile) {
+        if (!saltFile.getBaseFile().exists()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(saltFile.openRead())) {
+            return in.readLong();
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to read salt, starting a new log.", e);
+            return null;
+        }
+    }
+
+    private static long createSalt(AtomicFile saltFile) throws IOException {
+        long salt = new SecureRandom().nextLong();
+        FileOutputStream stream = saltFile.startWrite();
+        try {
+            DataOutputStream out = new DataOutputStream(stream);
+            out.writeLong(salt);
+            out.flush();
+            saltFile.finishWrite(stream);
+        } catch (IOException e) {
+            saltFile.failWrite(stream);
+            throw e;
+        }
+        return salt;
+    }
+
+    // Commits what is staged and stops the writer
+    public void close() {
+        handler.removeCallbacks(commitRunnable);
+        handler.post(commitRunnable);
+        thread.quitSafely();
+    }
+
+    // Same number, same fingerprint. Not a secret for anyone who also has the salt, see above.
+    public long fingerprint(long numberKey) {
+        long h = numberKey ^ salt;
+        h = (h ^ (h >>> 33)) * 0xff51afd7ed558ccdL;
+        h = (h ^ (h >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return h ^ (h >>> 33);
+    }
+
+    // Called on the screening thread, only copies the record into the staging buffer
+    public void append(long time, long fingerprint, byte verdict, byte reason, int latencyMicros) {
+        synchronized (this) {
+            if (staged == STAGING_CAPACITY) {
+                dropped++;
+                return;
+            }
+
+            stagedTimes[staged] = time;
+            stagedFingerprints[staged] = fingerprint;
+            stagedLatencies[staged] = latencyMicros;
+            stagedVerdicts[staged] = verdict;
+            stagedReasons[staged] = reason;
+            staged++;
+
+            if (!commitScheduled) {
+                commitScheduled = true;
+                handler.postDelayed(commitRunnable, COMMIT_DELAY);
+            }
+        }
+    }
+
+    // Runs on the writer thread
+    private void commit() {
+        long position = written;
+
+        synchronized (this) {
+            commitScheduled = false;
+            for (int i = 0; i < staged; i++) {
+                int offset = recordOffset(position++);
+                buffer.putLong(offset, stagedTimes[i]);
+                buffer.putLong(offset + 8, stagedFingerprints[i]);
+                buffer.putInt(offset + 16, stagedLatencies[i]);
+                buffer.put(offset + 20, stagedVerdicts[i]);
+                buffer.put(offset + 21, stagedReasons[i]);
+            }
+            staged = 0;
+
+            if (dropped > 0) {
+                Log.w(TAG, "Dropped " + dropped + " records, the writer could not keep up.");
+                dropped = 0;
+            }
+        }
+
+        buffer.putLong(OFFSET_WRITTEN, position);
+        written = position;
+        buffer.force();
+    }
+
+    private static int recordOffset(long index) {
+        return HEADER_SIZE + (int) (index % CAPACITY) * RECORD_SIZE;
+    }
+
+    //
+    // Reading
+    //
+
+    // Records currently kept in the file
+    public int size() {
+        return (int) Math.min(written, CAPACITY);
+    }
+
+    // Columns of one page of records, reused between reads
+    public static final class Page {
+        public final long[] times;
+        public final long[] fingerprints;
+        public final int[] latencyMicros;
+        public final byte[] verdicts;
+        public final byte[] reasons;
+        public int size;
+
+        public Page(int capacity) {
+            times = new long[capacity];
+            fingerprints = new long[capacity];
+            latencyMicros = new int[capacity];
+            verdicts = new byte[capacity];
+            reasons = new byte[capacity];
+        }
+    }
+
+    // Read up to page capacity records, newest first, skipping the newest offset records.
+    // Only the requested records are read from the file. Returns the number of records read.
+    public int read(int offset, Page page) {
+        long end = written;
+        int available = (int) Math.min(end, CAPACITY);
+
+        page.size = 0;
+        for (int i = offset; i < available && page.size < page.times.length; i++) {
+            int recordOffset = recordOffset(end - 1 - i);
+            int n = page.size++;
+            page.times[n] = buffer.getLong(recordOffset);
+            page.fingerprints[n] = buffer.getLong(recordOffset + 8);
+            page.latencyMicros[n] = buffer.getInt(recordOffset + 16);
+            page.verdicts[n] = buffer.get(recordOffset + 20);
+            page.reasons[n] = buffer.get(recordOffset + 21);
+        }
+        return page.size;
+    }
+}
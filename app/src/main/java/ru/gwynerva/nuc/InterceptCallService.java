@@ -7,25 +7,32 @@ import android.app.NotificationChannel;
 import android.app.NotificationManager;
 import android.app.PendingIntent;
 import android.content.Intent;
-import android.content.SharedPreferences;
-import android.database.Cursor;
-import android.net.Uri;
+import android.content.pm.ApplicationInfo;
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.Looper;
-import android.provider.ContactsContract;
+import android.os.MessageQueue;
+import android.os.Process;
+import android.os.StrictMode;
 import android.telecom.Call;
 import android.telecom.CallScreeningService;
+import android.telephony.TelephonyManager;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
 import androidx.core.app.NotificationCompat;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class InterceptCallService extends CallScreeningService {
-    public enum State { ACTIVE, PAUSED, STOPPED }
-    private State currentState = State.STOPPED;
+    // Last state shown in the notification, screening reads the state machine directly
+    private ProtectionState currentState = ProtectionState.STOPPED;
     private long pauseUntilTimestamp = 0; // timestamp until when service should be paused
 
 
@@ -33,47 +40,151 @@ public class InterceptCallService extends CallScreeningService {
     private final String TAG = "NUC Call Interceptor";
     private final int NOTIFICATION_ID = 1;
 
-    // Constants for Intent communication
-    public static final String ACTION_SET_STATE = "ru.gwynerva.nuc.SET_STATE";
-    public static final String ACTION_SET_ALLOW_RECALL = "ru.gwynerva.nuc.SET_ALLOW_RECALL";
+    // Sent by PauseAlarm, state changes otherwise come from ProtectionStateRepository
+    public static final String ACTION_PAUSE_EXPIRED = "ru.gwynerva.nuc.PAUSE_EXPIRED";
 
-    private final int SELF_UPDATE_INTERVAL = 5000;
-    private final Handler selfUpdateHandler = new Handler(Looper.getMainLooper());
-    private Runnable selfUpdaterRunnable;
+    // Screening deadlines are pooled messages with the PendingCall as their object, nothing is allocated for them
+    private static final int MSG_SCREENING_DEADLINE = 1;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper(), message -> {
+        if (message.what == MSG_SCREENING_DEADLINE) {
+            onScreeningDeadline((PendingCall) message.obj);
+            return true;
+        }
+        return false;
+    });
+
+    // Responses are immutable, so every call gets the same ones
+    private static final CallResponse ALLOW_RESPONSE = new CallResponse.Builder()
+            .setDisallowCall(false)
+            .setRejectCall(false)
+            .setSkipCallLog(false)
+            .setSkipNotification(false)
+            .build();
+    private static final CallResponse REJECT_RESPONSE = new CallResponse.Builder()
+            .setDisallowCall(true)
+            .setRejectCall(true)
+            .setSkipCallLog(true)
+            .setSkipNotification(true)
+            .build();
+
+    // Screening runs on its own thread, the main looper only receives the call and enforces the deadline
+    private HandlerThread screeningThread;
+    private Handler screeningHandler;
+    private long screeningDeadline = SettingsStore.DEFAULT_SCREENING_DEADLINE;
+    private StrictMode.ThreadPolicy screeningPolicy;
+
+    // Screening stage timings, recorded on the screening thread and printed by dumpsys
+    private final LatencyHistogram queueTimings = new LatencyHistogram("queue");
+    private final LatencyHistogram respondTimings = new LatencyHistogram("respondToCall");
+    private final LatencyHistogram bookkeepingTimings = new LatencyHistogram("stats and log");
+    private final LatencyHistogram totalTimings = new LatencyHistogram("total");
+    private final AtomicLong deadlineMisses = new AtomicLong(0);
 
     private boolean allowRecall = false;
-    private final Map<String, Long> recallMap = new HashMap<>();
-
-    private SharedPreferences preferences;
+    private final long RECALL_PERIOD = 5 * 60 * 1000;
+    // Hard limit of remembered unknown numbers, the oldest one is forgotten first
+    private final int RECALL_CAPACITY = 1024;
+    // Unknown calls allowed from one range of 10^BurstDetector.RANGE_DIGITS numbers within the window
+    private final int BURST_THRESHOLD = 5;
+    private final long BURST_WINDOW = 10 * 60 * 1000;
+    private final int BURST_SLOTS = 10;
+
+    private ScreeningRules.NotActiveRule notActiveRule;
+    private ScreeningRules.ContactRule contactRule;
+    private ScreeningRules.RecallRule recallRule;
+    // Accessed only on the screening thread
+    private final BurstDetector burstDetector = new BurstDetector(BURST_WINDOW, BURST_SLOTS);
+    // Decides calls, accessed only on the screening thread
+    private ScreeningEngine screeningEngine;
+    // Outcomes of the cacheable rules for numbers that called recently
+    private final int VERDICT_CACHE_CAPACITY = 256;
+    private final VerdictCache verdictCache = new VerdictCache(VERDICT_CACHE_CAPACITY);
+
+    private ProtectionStateRepository stateRepository;
+
+    private ContactIndex contactIndex;
+    private SpamDatabase spamDatabase;
+
+    // Set once notifications are set up, see completeStartup()
+    private boolean startupCompleted = false;
+    // Accessed only on the screening thread
+    private boolean firstCallAnswered = false;
+    // Loaded on the screening thread
+    private volatile CallStats callStats;
+    // Opened and used on the screening thread, null if the file could not be mapped
+    private DecisionLog decisionLog;
+    private PatternIndex patternIndex;
 
     @Override
     public void onCreate() {
         super.onCreate();
 
-        preferences = getSharedPreferences(Preferences.NAME, MODE_PRIVATE);
-        currentState = State.valueOf(preferences.getString(Preferences.KEY_STATE, State.STOPPED.toString()));
-        allowRecall = preferences.getBoolean(Preferences.KEY_ALLOW_RECALL, true);
+        stateRepository = ProtectionStateRepository.getInstance(this);
+        ProtectionStateRepository.Snapshot snapshot = stateRepository.getSnapshot();
+        currentState = snapshot.state;
+        pauseUntilTimestamp = snapshot.pauseUntil;
+        allowRecall = snapshot.allowRecall;
+        screeningDeadline = SettingsStore.getInstance(this).getScreeningDeadline();
+        screeningPolicy = createScreeningPolicy((getApplicationInfo().flags & ApplicationInfo.FLAG_DEBUGGABLE) != 0);
+
+        screeningThread = new HandlerThread("nuc-screening", Process.THREAD_PRIORITY_FOREGROUND);
+        screeningThread.start();
+        screeningHandler = new Handler(screeningThread.getLooper());
+
+        contactIndex = new ContactIndex(this, verdictCache::invalidate);
+        contactIndex.start();
+        patternIndex = new PatternIndex(this, verdictCache::invalidate);
+        patternIndex.start();
+        spamDatabase = new SpamDatabase(this, verdictCache::invalidate);
+        spamDatabase.start();
+
+        recallRule = new ScreeningRules.RecallRule(
+                new File(getFilesDir(), "recall.bin"), RECALL_CAPACITY, RECALL_PERIOD, allowRecall);
+        screeningEngine = new ScreeningEngine(buildScreeningChain(), stateRepository.getStateMachine(), Clock.SYSTEM);
+        // Open the stats, recall and log files before the first call arrives
+        screeningHandler.post(() -> {
+            int region = resolveRegion();
+            screeningEngine.setRegion(region);
+            contactIndex.setRegion(region);
+            patternIndex.setRegion(region);
+        });
+        screeningHandler.post(() -> callStats = CallStats.getInstance(this));
+        screeningHandler.post(() -> recallRule.cleanup(System.currentTimeMillis()));
+        screeningHandler.post(this::openDecisionLog);
+
+        stateRepository.addListener(stateListener);
+        SettingsStore.getInstance(this).addListener(settingsListener);
+        // The pause may have ended while the service was not running
+        stateRepository.checkPauseExpiration();
+
+        // Notifications are not needed to answer calls,
+        // set them up once the main thread has nothing more urgent to do
+        Looper.myQueue().addIdleHandler(startupIdleHandler);
+
+        StartupTimings.mark("service created");
+        Log.i(TAG, "__CREATED__");
+    }
+
+    private final MessageQueue.IdleHandler startupIdleHandler = () -> {
+        completeStartup();
+        return false;
+    };
 
-        checkPauseStateExpiration();
+    private void completeStartup() {
+        startupCompleted = true;
+        // The role may have been taken away while the process was running
+        PermissionState.getInstance(this).refreshRole();
         createNotificationChannel();
         createServiceNotification();
         updateServiceNotification();
-        startSelfUpdater();
-
-        Log.i(TAG, "__CREATED__");
+        StartupTimings.mark("service ready");
     }
 
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
-        if (intent != null && intent.getAction() != null) {
-            switch (intent.getAction()) {
-                case ACTION_SET_STATE:
-                    setState(State.valueOf(intent.getStringExtra("state")));
-                    break;
-                case ACTION_SET_ALLOW_RECALL:
-                    setAllowRecall(intent.getBooleanExtra("allow", true));
-                    break;
-            }
+        PermissionState.getInstance(this).refreshRole();
+        if (intent != null && ACTION_PAUSE_EXPIRED.equals(intent.getAction())) {
+            stateRepository.checkPauseExpiration();
         }
 
         return START_STICKY;
@@ -81,151 +192,309 @@ public class InterceptCallService extends CallScreeningService {
 
     @Override
     public void onDestroy() {
-        stopSelfUpdater();
+        Looper.myQueue().removeIdleHandler(startupIdleHandler);
+        stateRepository.removeListener(stateListener);
+        SettingsStore.getInstance(this).removeListener(settingsListener);
+        contactIndex.stop();
+        patternIndex.stop();
+        spamDatabase.stop();
+        // Calls already queued are still answered, pending deadlines stay on the main looper.
+        // The process may be killed soon after, counts and decisions are written right away.
+        screeningHandler.post(() -> {
+            if (callStats != null) {
+                callStats.flushNow();
+            }
+            if (decisionLog != null) {
+                decisionLog.close();
+            }
+        });
+        screeningThread.quitSafely();
         Log.i(TAG, "__DESTROYED__");
         super.onDestroy();
     }
 
-    private void clearPauseState() {
-        pauseUntilTimestamp = 0;
-        preferences.edit().putLong(Preferences.KEY_PAUSE_UNTIL, 0).apply();
-    }
+    //
+    // State
+    //
+
+    private final ProtectionStateRepository.Listener stateListener = this::onProtectionStateChanged;
+
+    // Cached verdicts do not depend on the settings directly, but must never outlive a change of them
+    private final SettingsStore.Listener settingsListener = settings -> verdictCache.invalidate();
 
-    private void checkPauseStateExpiration() {
-        pauseUntilTimestamp = preferences.getLong(Preferences.KEY_PAUSE_UNTIL, 0);
+    private void onProtectionStateChanged(ProtectionStateRepository.Snapshot snapshot) {
+        verdictCache.invalidate();
 
-        if (currentState == State.PAUSED && pauseUntilTimestamp > 0 && System.currentTimeMillis() >= pauseUntilTimestamp) {
-            pauseUntilTimestamp = 0;
-            preferences.edit().putLong(Preferences.KEY_PAUSE_UNTIL, 0).apply();
-            currentState = State.ACTIVE;
-            preferences.edit().putString(Preferences.KEY_STATE, currentState.toString()).apply();
+        if (snapshot.allowRecall != allowRecall) {
+            allowRecall = snapshot.allowRecall;
+            recallRule.setEnabled(allowRecall);
+            if (!allowRecall) {
+                screeningHandler.post(() -> recallRule.cleanup(System.currentTimeMillis()));
+            }
+        }
+
+        if (snapshot.state != currentState || snapshot.pauseUntil != pauseUntilTimestamp) {
+            currentState = snapshot.state;
+            pauseUntilTimestamp = snapshot.pauseUntil;
             updateServiceNotification();
         }
     }
 
     //
-    // Actions
+    // Call Handling
     //
 
-    public void setState(State newState) {
-        if (newState != currentState) {
-            Log.i(TAG, "State changed from " + currentState + " to " + newState);
+    // Disk access on the main thread while a call is being screened is a bug
+    private static StrictMode.ThreadPolicy createScreeningPolicy(boolean debuggable) {
+        StrictMode.ThreadPolicy.Builder builder = new StrictMode.ThreadPolicy.Builder()
+                .detectDiskReads()
+                .detectDiskWrites()
+                .penaltyLog();
+        if (debuggable) {
+            builder.penaltyDeath();
+        }
+        return builder.build();
+    }
 
-            currentState = newState;
-            preferences.edit().putString(Preferences.KEY_STATE, newState.toString()).apply();
+    // Incoming call that must be answered exactly once, either by the screening thread or by the deadline.
+    // Runs on the screening thread.
+    private class PendingCall implements Runnable {
+        final Call.Details details;
+        final AtomicBoolean responded = new AtomicBoolean(false);
+        final long receivedNanos = System.nanoTime();
 
-            switch (newState) {
-                case ACTIVE:
-                case STOPPED:
-                    clearPauseState();
-                    break;
-            }
+        PendingCall(Call.Details details) {
+            this.details = details;
+        }
 
-            updateServiceNotification();
+        @Override
+        public void run() {
+            screenCall(this);
+            mainHandler.removeMessages(MSG_SCREENING_DEADLINE, this);
         }
     }
 
-    public void setAllowRecall(boolean allow) {
-        if (!allow) {
-            cleanupRecallMap();
+    // Deadline has passed before the screening thread decided
+    private void onScreeningDeadline(PendingCall call) {
+        if (allowCall(call, "Screening deadline exceeded.")) {
+            deadlineMisses.incrementAndGet();
         }
-
-        allowRecall = allow;
-        preferences.edit().putBoolean(Preferences.KEY_ALLOW_RECALL, allowRecall).apply();
     }
 
-    //
-    // Call Handling
-    //
-
     @Override
     public void onScreenCall(@NonNull Call.Details details) {
         Log.i(TAG, "Call caught!");
 
-        if (currentState != State.ACTIVE) {
-            allowCall(details, "Protection is not active.");
-            return;
+        StrictMode.ThreadPolicy previousPolicy = StrictMode.getThreadPolicy();
+        StrictMode.setThreadPolicy(screeningPolicy);
+        try {
+            PendingCall call = new PendingCall(details);
+            mainHandler.sendMessageDelayed(mainHandler.obtainMessage(MSG_SCREENING_DEADLINE, call), screeningDeadline);
+            screeningHandler.post(call);
+        } finally {
+            StrictMode.setThreadPolicy(previousPolicy);
         }
+    }
 
-        if (details.getCallDirection() != DIRECTION_INCOMING) {
-            allowCall(details, "Not an incoming call.");
-            return;
-        }
+    private ScreeningChain buildScreeningChain() {
+        notActiveRule = new ScreeningRules.NotActiveRule();
+        contactRule = new ScreeningRules.ContactRule(contactIndex);
+
+        return new ScreeningChain.Builder()
+                .add(notActiveRule)
+                .add(new ScreeningRules.NotIncomingRule())
+                .add(new ScreeningRules.EmptyNumberRule())
+                .add(new ScreeningRules.ContactsPermissionRule(contactIndex))
+                .add(contactRule)
+                .add(new ScreeningRules.PatternRule(patternIndex::getMatcher, ScreeningRule.Verdict.ALLOW))
+                .add(new ScreeningRules.PatternRule(patternIndex::getMatcher, ScreeningRule.Verdict.REJECT))
+                .add(new ScreeningRules.SpamRule(spamDatabase::contains))
+                .add(new ScreeningRules.BurstRule(burstDetector, BURST_THRESHOLD))
+                .add(recallRule)
+                .setDefault(ScreeningRule.Verdict.REJECT, "Unknown call number.")
+                .setCache(verdictCache)
+                .build();
+    }
+
+    // Runs on the screening thread
+    private void screenCall(PendingCall call) {
+        long startTime = System.nanoTime();
+        queueTimings.record(startTime - call.receivedNanos);
+
+        Call.Details details = call.details;
 
         String callNumber = "";
         if (details.getHandle() != null) {
             callNumber = details.getHandle().getSchemeSpecificPart();
         }
 
-        if (callNumber.isEmpty()) {
-            allowCall(details, "Empty call number.");
+        // The deadline has allowed the call while it was queued. The rules do not see it, their recall
+        // and burst state must only hold calls they decided.
+        if (call.responded.get()) {
+            recordDecision(call, System.currentTimeMillis(), screeningEngine.numberKey(callNumber),
+                    true, CallStats.Reason.DEADLINE, startTime);
             return;
         }
 
-        if (!PermissionManager.isContactsPermissionGranted(this)) {
-            allowCall(details, "No contacts permission. Cannot check if caller is in contacts.");
-            return;
+        ScreeningCall screeningCall = screeningEngine.screen(callNumber, details.getCallDirection() == DIRECTION_INCOMING);
+        boolean allowed = screeningCall.verdict == ScreeningRule.Verdict.ALLOW;
+        long rulesTime = System.nanoTime();
+
+        boolean responded = allowed ? allowCall(call, screeningCall.reason) : rejectCall(call);
+        long respondTime = System.nanoTime();
+        respondTimings.record(respondTime - rulesTime);
+
+        if (!firstCallAnswered) {
+            firstCallAnswered = true;
+            StartupTimings.mark("service first call answered");
         }
 
-        boolean isContact;
-        Uri lookupUri = Uri.withAppendedPath(
-                ContactsContract.PhoneLookup.CONTENT_FILTER_URI,
-                Uri.encode(callNumber));
-        try (Cursor cursor = getContentResolver().query(
-                lookupUri,
-                new String[]{ContactsContract.PhoneLookup._ID},
-                null, null, null)) {
-            isContact = (cursor != null && cursor.getCount() > 0);
-        } catch (Exception e) {
-            allowCall(details, "Failed to check call number in contacts.");
-            return;
+        if (responded) {
+            recordDecision(call, screeningCall.time, screeningCall.numberKey,
+                    allowed, getStatsReason(screeningCall), respondTime);
+        } else {
+            // The deadline was first, what Telecom got is an allowed call
+            recordDecision(call, screeningCall.time, screeningCall.numberKey,
+                    true, CallStats.Reason.DEADLINE, respondTime);
         }
 
-        if (isContact) {
-            allowCall(details, "It is a contact call.");
-            return;
+        // The rules saw that the pause is over, the pause alarm has not come yet
+        if (screeningCall.active && screeningEngine.getStateMachine().getState() == ProtectionState.PAUSED) {
+            stateRepository.checkPauseExpiration();
+        }
+    }
+
+    // Counts and logs what was sent to Telecom, after answering. Both are written to disk in batches.
+    private void recordDecision(PendingCall call, long time, long numberKey, boolean allowed,
+                                CallStats.Reason reason, long respondTime) {
+        callStats.record(reason, time);
+
+        if (decisionLog != null) {
+            int latencyMicros = (int) ((respondTime - call.receivedNanos) / 1000);
+            decisionLog.append(time,
+                    decisionLog.fingerprint(numberKey),
+                    allowed ? DecisionLog.VERDICT_ALLOW : DecisionLog.VERDICT_REJECT,
+                    (byte) reason.ordinal(),
+                    latencyMicros);
         }
 
-        if (allowRecall) {
-            cleanupRecallMap();
+        long endTime = System.nanoTime();
+        bookkeepingTimings.record(endTime - respondTime);
+        totalTimings.record(endTime - call.receivedNanos);
+    }
 
-            if (recallMap.containsKey(callNumber)) {
-                allowCall(details, "Repeated call within recall period.");
-                return;
+    // Numbers are dialed by the rules of the SIM's home country, the network or the locale are fallbacks
+    private int resolveRegion() {
+        TelephonyManager telephonyManager = getSystemService(TelephonyManager.class);
+        if (telephonyManager != null) {
+            int index = PhoneNumbers.regionIndex(telephonyManager.getSimCountryIso().toUpperCase(Locale.ROOT));
+            if (index < 0) {
+                index = PhoneNumbers.regionIndex(telephonyManager.getNetworkCountryIso().toUpperCase(Locale.ROOT));
+            }
+            if (index >= 0) {
+                return index;
             }
+        }
+        return PhoneNumbers.regionIndex(Locale.getDefault().getCountry());
+    }
+
+    private void openDecisionLog() {
+        try {
+            decisionLog = DecisionLog.open(new File(getFilesDir(), "decisions.log"),
+                    new File(getNoBackupFilesDir(), "decisions.salt"));
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to open decision log, decisions will not be recorded.", e);
+        }
+    }
 
-            long now = System.currentTimeMillis();
-            recallMap.put(callNumber, now + 5 * 60 * 1000);
-            Log.i(TAG, "Unknown call number stored for 5 minutes!");
+    private CallStats.Reason getStatsReason(ScreeningCall call) {
+        if (call.verdict == ScreeningRule.Verdict.REJECT) {
+            return CallStats.Reason.REJECTED;
+        } else if (call.decidedBy == notActiveRule) {
+            return CallStats.Reason.NOT_ACTIVE;
+        } else if (call.decidedBy == contactRule) {
+            return CallStats.Reason.CONTACT;
+        } else if (call.decidedBy == recallRule) {
+            return CallStats.Reason.RECALL;
         }
+        return CallStats.Reason.OTHER;
+    }
 
-        int rejectedCallsNumber = preferences.getInt(Preferences.KEY_REJECTED_CALLS, 0);
-        rejectedCallsNumber++;
-        preferences.edit().putInt(Preferences.KEY_REJECTED_CALLS, rejectedCallsNumber).apply();
+    // Returns false if the call was already answered
+    private boolean rejectCall(PendingCall call) {
+        if (!call.responded.compareAndSet(false, true)) {
+            Log.w(TAG, "Call was already answered, rejection is too late.");
+            return false;
+        }
 
         Log.i(TAG, "Rejecting unknown call.");
-        CallResponse.Builder responseBuilder = new CallResponse.Builder()
-                .setDisallowCall(true)
-                .setRejectCall(true)
-                .setSkipCallLog(true)
-                .setSkipNotification(true);
-        respondToCall(details, responseBuilder.build());
+        respondToCall(call.details, REJECT_RESPONSE);
+        return true;
     }
 
-    private void cleanupRecallMap() {
-        long now = System.currentTimeMillis();
-        recallMap.entrySet().removeIf(entry -> entry.getValue() < now);
+    // Returns false if the call was already answered
+    private boolean allowCall(PendingCall call, String message) {
+        if (!call.responded.compareAndSet(false, true)) {
+            return false;
+        }
+
+        // Reasons are constants, logging them as they are does not allocate
+        Log.i(TAG, message);
+        respondToCall(call.details, ALLOW_RESPONSE);
+        return true;
     }
 
-    private void allowCall(@NonNull Call.Details details, String message) {
-        Log.i(TAG, message + " Allow.");
-        CallResponse response = new CallResponse.Builder()
-                .setDisallowCall(false)
-                .setRejectCall(false)
-                .setSkipCallLog(false)
-                .setSkipNotification(false)
-                .build();
-        respondToCall(details, response);
+    //
+    // Diagnostics
+    //
+
+    // adb shell dumpsys activity service ru.gwynerva.nuc/.InterceptCallService
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        long now = System.currentTimeMillis();
+
+        writer.println("State:");
+        writer.println("  state=" + currentState + " pauseUntil=" + pauseUntilTimestamp + " allowRecall=" + allowRecall);
+        writer.println("  screeningDeadline=" + screeningDeadline + "ms deadlineMisses=" + deadlineMisses.get());
+
+        ContactNumberSet contactNumbers = contactIndex.getNumbers();
+        writer.println("  contactIndex=" + (contactNumbers == null ? "not ready" : contactNumbers.size() + " numbers"));
+        NumberPatternMatcher matcher = patternIndex.getMatcher();
+        writer.println("  patterns=" + matcher.getPatternCount() + " states=" + matcher.getStateCount());
+        writer.println("  spamDatabase=" + spamDatabase.size() + " numbers filter=" + spamDatabase.getFilterBytes() + " bytes");
+        writer.println("  verdictCache=" + verdictCache.size() + "/" + verdictCache.capacity()
+                + " hits=" + verdictCache.getHits() + " misses=" + verdictCache.getMisses()
+                + " staleMisses=" + verdictCache.getStaleMisses() + " generation=" + verdictCache.generation());
+        writer.println("  burstDetector=" + burstDetector.getMemoryBytes() + " bytes");
+        writer.println("  decisionLog=" + (decisionLog == null ? "not open" : decisionLog.size() + " records"));
+
+        CallStats stats = callStats;
+        if (stats != null) {
+            writer.println("Counters (total / today):");
+            for (CallStats.Reason reason : CallStats.Reason.values()) {
+                writer.println("  " + reason + "=" + stats.getTotal(reason) + " / " + stats.getDaily(reason, 0, now));
+            }
+        }
+
+        writer.println("Startup:");
+        StartupTimings.dump(writer, "  ");
+
+        writer.println("Stages:");
+        queueTimings.dump(writer, "  ");
+        screeningEngine.getTimings().dump(writer, "  ");
+        respondTimings.dump(writer, "  ");
+        bookkeepingTimings.dump(writer, "  ");
+        totalTimings.dump(writer, "  ");
+
+        writer.println("Rules:");
+        ScreeningChain screeningChain = screeningEngine.getChain();
+        for (int i = 0; i < screeningChain.size(); i++) {
+            ScreeningRule rule = screeningChain.getRule(i);
+            writer.println("  " + rule.name() + " phase=" + rule.phase() + " cost=" + rule.cost()
+                    + " decisions=" + screeningChain.getDecisions(i));
+            screeningChain.getTimings(i).dump(writer, "    ");
+        }
+        writer.println("  default decisions=" + screeningChain.getDefaultDecisions());
     }
 
     //
@@ -272,7 +541,7 @@ public class InterceptCallService extends CallScreeningService {
         return new NotificationCompat.Builder(this, NOTIFICATION_CHANNEL_ID)
                 .setContentTitle(contentTitle)
                 .setContentText(contentText)
-                .setSmallIcon(currentState == State.ACTIVE ?
+                .setSmallIcon(currentState == ProtectionState.ACTIVE ?
                     R.drawable.protection_active : R.drawable.protection_pause)
                 .setContentIntent(pendingIntent)
                 .setOngoing(true)
@@ -287,15 +556,20 @@ public class InterceptCallService extends CallScreeningService {
     }
 
     private void createServiceNotification() {
-        if (currentState != State.STOPPED) {
+        if (currentState != ProtectionState.STOPPED) {
             startForeground(NOTIFICATION_ID, createNotification());
         }
     }
 
     private void updateServiceNotification() {
+        // Will be shown with the current state once startup completes
+        if (!startupCompleted) {
+            return;
+        }
+
         NotificationManager notificationManager = (NotificationManager) getSystemService(NOTIFICATION_SERVICE);
         if (notificationManager != null) {
-            if (currentState == State.STOPPED) {
+            if (currentState == ProtectionState.STOPPED) {
                 notificationManager.cancel(NOTIFICATION_ID);
                 stopForeground(true);
             } else {
@@ -303,27 +577,4 @@ public class InterceptCallService extends CallScreeningService {
             }
         }
     }
-
-    //
-    // Self Updater
-    //
-
-    private void startSelfUpdater() {
-        selfUpdaterRunnable = new Runnable() {
-            @Override
-            public void run() {
-                checkPauseStateExpiration();
-                //updateServiceNotification();
-                selfUpdateHandler.postDelayed(this, SELF_UPDATE_INTERVAL);
-            }
-        };
-        selfUpdateHandler.postDelayed(selfUpdaterRunnable, SELF_UPDATE_INTERVAL);
-    }
-
-    private void stopSelfUpdater() {
-        if (selfUpdaterRunnable != null) {
-            selfUpdateHandler.removeCallbacks(selfUpdaterRunnable);
-            selfUpdaterRunnable = null;
-        }
-    }
 }
\ No newline at end of file
@@ -1,13 +1,17 @@
 package ru.gwynerva.nuc;
 
+import android.app.AlarmManager;
 import android.app.AlertDialog;
 import android.content.Intent;
-import android.content.SharedPreferences;
+import android.net.Uri;
+import android.os.Build;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Looper;
+import android.provider.Settings;
 import android.util.DisplayMetrics;
 import android.view.View;
+import android.view.ViewStub;
 import android.view.ViewTreeObserver;
 import android.widget.CheckBox;
 import android.widget.ImageButton;
@@ -25,6 +29,7 @@ import com.yandex.mobile.ads.common.AdRequestError;
 import com.yandex.mobile.ads.common.ImpressionData;
 
 import java.util.Calendar;
+import java.util.Locale;
 
 public class MainActivity extends ComponentActivity {
     private TextView serviceStatus;
@@ -39,12 +44,26 @@ public class MainActivity extends ComponentActivity {
     // Add CircleAnimator for managing circle animations
     private CircleAnimator circleAnimator;
 
-    // SharedPreferences
-    private SharedPreferences preferences;
+    // Screening counters, kept in memory by the service
+    private CallStats callStats;
 
-    // Handler for periodic UI updates
-    private final Handler updateHandler = new Handler(Looper.getMainLooper());
-    private Runnable updateRunnable;
+    private PermissionState permissionState;
+
+    // Protection state shared with the service, the UI is rendered from its snapshots
+    private ProtectionStateRepository stateRepository;
+    private final ProtectionStateRepository.Listener stateListener = this::updateUI;
+
+    // What the views show now, updateUI() only touches the ones that change
+    private ProtectionState shownState;
+    private String shownPausedUntil;
+    private String shownCounter;
+    private String tomorrowText;
+    private CachedText pausedUntilText;
+    private CachedText counterText;
+
+    // What shows the date changes at midnight without any state change, redrawn while resumed
+    private final Handler midnightHandler = new Handler(Looper.getMainLooper());
+    private final Runnable midnightRunnable = this::onMidnight;
 
     // Ads
     @Nullable
@@ -56,8 +75,14 @@ public class MainActivity extends ComponentActivity {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
 
-        // Initialize SharedPreferences
-        preferences = getSharedPreferences(Preferences.NAME, MODE_PRIVATE);
+        stateRepository = ProtectionStateRepository.getInstance(this);
+        permissionState = PermissionState.getInstance(this);
+        callStats = CallStats.getInstance(this);
+
+        Locale locale = getResources().getConfiguration().getLocales().get(0);
+        tomorrowText = getString(R.string.tomorrow);
+        pausedUntilText = new CachedText(getString(R.string.on_pause_until), locale);
+        counterText = new CachedText(getString(R.string.calls_skipped), locale);
 
         initViews();
         setupServiceButtons();
@@ -65,8 +90,47 @@ public class MainActivity extends ComponentActivity {
         // Initialize the circle animator
         circleAnimator = new CircleAnimator(backgroundCircle);
 
+        // Ads are not needed for the first frame
+        deferUntilFirstDraw();
+    }
+
+    // Wait for the first frame, then load the rest once the main thread is idle
+    private void deferUntilFirstDraw() {
+        final View decorView = getWindow().getDecorView();
+        decorView.getViewTreeObserver().addOnDrawListener(new ViewTreeObserver.OnDrawListener() {
+            private boolean drawn = false;
+
+            @Override
+            public void onDraw() {
+                if (drawn) {
+                    return;
+                }
+                drawn = true;
+
+                // Listeners cannot be removed while drawing
+                decorView.post(() -> {
+                    decorView.getViewTreeObserver().removeOnDrawListener(this);
+                    onFirstDraw();
+                });
+            }
+        });
+    }
+
+    private void onFirstDraw() {
+        StartupTimings.markOnce("activity first frame");
+
+        Looper.myQueue().addIdleHandler(() -> {
+            if (!isDestroyed()) {
+                inflateBannerAd();
+            }
+            return false;
+        });
+    }
+
+    private void inflateBannerAd() {
         // Initialize ad container view
-        adContainerView = findViewById(R.id.bottomAds);
+        ViewStub adStub = findViewById(R.id.bottomAdsStub);
+        adContainerView = adStub.inflate();
 
         // Wait until the ad container view is laid out before loading the ad
         adContainerView.getViewTreeObserver().addOnGlobalLayoutListener(
@@ -75,12 +139,22 @@ public class MainActivity extends ComponentActivity {
                     public void onGlobalLayout() {
                         adContainerView.getViewTreeObserver().removeOnGlobalLayoutListener(this);
                         mBannerAd = loadBannerAd(getAdSize());
+                        StartupTimings.markOnce("activity ads requested");
                     }
                 }
         );
+    }
+
+    @Override
+    protected void onStart() {
+        super.onStart();
+        circleAnimator.start();
+    }
 
-        // Start UI update handler
-        startPeriodicUpdates();
+    @Override
+    protected void onStop() {
+        circleAnimator.stop();
+        super.onStop();
     }
 
     @Override
@@ -91,20 +165,47 @@ public class MainActivity extends ComponentActivity {
         Intent serviceIntent = new Intent(this, InterceptCallService.class);
         startService(serviceIntent);
 
-        // Check if ALL permissions are granted, if not - show PermissionsActivity
-        if (!PermissionManager.areAllPermissionsGranted(this)) {
-            setServiceState(InterceptCallService.State.STOPPED);
+        // Check if ALL permissions are granted, if not - show PermissionsActivity.
+        // They may have been changed in the system settings while the activity was in the background.
+        if (!permissionState.refresh().allGranted()) {
+            stateRepository.setState(ProtectionState.STOPPED, 0);
             Intent permissionsIntent = new Intent(this, PermissionsActivity.class);
             startActivity(permissionsIntent);
         }
 
-        updateUI();
+        // Today's counter may have started over while the activity was in the background
+        callStats.publishCounters(System.currentTimeMillis());
+        // The pause may be over with its alarm still pending, or the alarm may now be allowed to be exact
+        stateRepository.checkPauseExpiration();
+        stateRepository.addListener(stateListener);
+        updateUI(stateRepository.getSnapshot());
+        scheduleMidnight();
     }
 
     @Override
-    protected void onDestroy() {
-        stopPeriodicUpdates();
-        super.onDestroy();
+    protected void onPause() {
+        midnightHandler.removeCallbacks(midnightRunnable);
+        stateRepository.removeListener(stateListener);
+        super.onPause();
+    }
+
+    // "Tomorrow" in the pause end turns into today and today's counter starts over
+    private void onMidnight() {
+        callStats.publishCounters(System.currentTimeMillis());
+        updateUI(stateRepository.getSnapshot());
+        scheduleMidnight();
+    }
+
+    private void scheduleMidnight() {
+        Calendar cal = Calendar.getInstance();
+        cal.add(Calendar.DAY_OF_YEAR, 1);
+        cal.set(Calendar.HOUR_OF_DAY, 0);
+        cal.set(Calendar.MINUTE, 0);
+        cal.set(Calendar.SECOND, 0);
+        cal.set(Calendar.MILLISECOND, 0);
+
+        midnightHandler.removeCallbacks(midnightRunnable);
+        midnightHandler.postDelayed(midnightRunnable, cal.getTimeInMillis() - System.currentTimeMillis());
     }
 
     @NonNull
@@ -174,23 +275,14 @@ public class MainActivity extends ComponentActivity {
 
         // Initialize allowRecallCheckbox
         allowRecallCheckbox = findViewById(R.id.allowRecallCheckbox);
-        allowRecallCheckbox.setChecked(preferences.getBoolean(Preferences.KEY_ALLOW_RECALL, true));
-        allowRecallCheckbox.setOnCheckedChangeListener((buttonView, isChecked) -> {
-            preferences.edit().putBoolean(Preferences.KEY_ALLOW_RECALL, isChecked).apply();
-
-            Intent intent = new Intent(this, InterceptCallService.class);
-            intent.setAction(InterceptCallService.ACTION_SET_ALLOW_RECALL);
-            intent.putExtra("allow", isChecked);
-            startService(intent);
-        });
+        allowRecallCheckbox.setChecked(stateRepository.getSnapshot().allowRecall);
+        allowRecallCheckbox.setOnCheckedChangeListener((buttonView, isChecked) ->
+                stateRepository.setAllowRecall(isChecked));
     }
 
     // Set up start, pause, and stop buttons for the service
     private void setupServiceButtons() {
-        startButton.setOnClickListener(v -> {
-            setServiceState(InterceptCallService.State.ACTIVE);
-            updateUI();
-        });
+        startButton.setOnClickListener(v -> stateRepository.setState(ProtectionState.ACTIVE, 0));
 
         pauseButton.setOnClickListener(v -> {
             AlertDialog.Builder builder = new AlertDialog.Builder(MainActivity.this);
@@ -203,18 +295,34 @@ public class MainActivity extends ComponentActivity {
             };
             builder.setItems(options, (dialog, which) -> {
                 long pauseUntil = calculatePauseTimestamp(which);
-                preferences.edit().putLong(Preferences.KEY_PAUSE_UNTIL, pauseUntil).apply();
-                setServiceState(InterceptCallService.State.PAUSED);
-                updateUI();
+                stateRepository.setState(ProtectionState.PAUSED, pauseUntil);
+                requestExactAlarm();
             });
             builder.setNegativeButton("Cancel", null);
             builder.show();
         });
 
-        stopButton.setOnClickListener(v -> {
-            setServiceState(InterceptCallService.State.STOPPED);
-            updateUI();
-        });
+        stopButton.setOnClickListener(v -> stateRepository.setState(ProtectionState.STOPPED, 0));
+    }
+
+    // The pause alarm is inexact without the permission and may come long after the end of the pause in doze,
+    // the screen and the notification would show the pause until then
+    private void requestExactAlarm() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.S) {
+            return;
+        }
+        AlarmManager alarmManager = getSystemService(AlarmManager.class);
+        if (alarmManager == null || alarmManager.canScheduleExactAlarms()) {
+            return;
+        }
+
+        new AlertDialog.Builder(this)
+                .setMessage(R.string.exact_alarm_text)
+                .setPositiveButton(R.string.exact_alarm_button, (dialog, which) ->
+                        startActivity(new Intent(Settings.ACTION_REQUEST_SCHEDULE_EXACT_ALARM,
+                                Uri.fromParts("package", getPackageName(), null))))
+                .setNegativeButton(android.R.string.cancel, null)
+                .show();
     }
 
     // Calculate timestamp for when to resume service based on selection
@@ -241,98 +349,62 @@ public class MainActivity extends ComponentActivity {
         return cal.getTimeInMillis();
     }
 
-    // Update UI based on service state and preferences
-    private void updateUI() {
-        InterceptCallService.State state = getServiceState();
-        int rejectedCalls = preferences.getInt(Preferences.KEY_REJECTED_CALLS, 0);
-        long pauseUntil = preferences.getLong(Preferences.KEY_PAUSE_UNTIL, 0);
-
-        // Check if pause time has passed and we need to auto-resume
-        if (state == InterceptCallService.State.PAUSED &&
-                pauseUntil > 0 && System.currentTimeMillis() >= pauseUntil) {
-            // Resume service
-            preferences.edit().putLong(Preferences.KEY_PAUSE_UNTIL, 0).apply();
-            setServiceState(InterceptCallService.State.ACTIVE);
-            state = InterceptCallService.State.ACTIVE;
-            pauseUntil = 0;
-        }
+    // Update UI from a protection state snapshot, called when it changes.
+    // Views are only touched when what they show changes, an update with the same values does not allocate.
+    private void updateUI(ProtectionStateRepository.Snapshot snapshot) {
+        ProtectionState state = snapshot.state;
 
         // Update background circle based on service status with animation
-        switch (state) {
-            case ACTIVE:
-                circleAnimator.animateToActive();
-                serviceStatus.setText(getString(R.string.protection_active));
-                serviceStatus.setTextColor(getColor(R.color.active));
-                pausedUntil.setVisibility(View.GONE);
-                break;
-            case PAUSED:
-                circleAnimator.animateToPaused();
-                serviceStatus.setTextColor(getColor(R.color.paused));
-                serviceStatus.setText(getString(R.string.protection_paused));
-                pausedUntil.setText(getString(R.string.on_pause_until, TimeUtils.formatTimestamp(pauseUntil, getString(R.string.tomorrow))));
-                pausedUntil.setVisibility(View.VISIBLE);
-                break;
-            case STOPPED:
-            default:
-                circleAnimator.animateToStopped();
-                serviceStatus.setText(getString(R.string.protection_stopped));
-                serviceStatus.setTextColor(getColor(R.color.stopped));
-                pausedUntil.setVisibility(View.GONE);
-                break;
+        if (state != shownState) {
+            shownState = state;
+            switch (state) {
+                case ACTIVE:
+                    circleAnimator.animateToActive();
+                    serviceStatus.setText(getString(R.string.protection_active));
+                    serviceStatus.setTextColor(getColor(R.color.active));
+                    pausedUntil.setVisibility(View.GONE);
+                    break;
+                case PAUSED:
+                    circleAnimator.animateToPaused();
+                    serviceStatus.setTextColor(getColor(R.color.paused));
+                    serviceStatus.setText(getString(R.string.protection_paused));
+                    pausedUntil.setVisibility(View.VISIBLE);
+                    break;
+                case STOPPED:
+                default:
+                    circleAnimator.animateToStopped();
+                    serviceStatus.setText(getString(R.string.protection_stopped));
+                    serviceStatus.setTextColor(getColor(R.color.stopped));
+                    pausedUntil.setVisibility(View.GONE);
+                    break;
+            }
         }
 
-        // Update rejected calls counter
-        rejectedCounter.setText(getString(R.string.calls_skipped, rejectedCalls));
-
-        // Update button states - now requires ALL permissions
-        boolean permissionsGranted = PermissionManager.areAllPermissionsGranted(this);
-        startButton.setEnabled(permissionsGranted && state != InterceptCallService.State.ACTIVE);
-        pauseButton.setEnabled(permissionsGranted && state == InterceptCallService.State.ACTIVE);
-        stopButton.setEnabled(permissionsGranted && state != InterceptCallService.State.STOPPED);
-
-        // Update checkbox state from preferences
-        boolean allowRecall = preferences.getBoolean(Preferences.KEY_ALLOW_RECALL, true);
-        if (allowRecallCheckbox.isChecked() != allowRecall) {
-            allowRecallCheckbox.setChecked(allowRecall);
+        // Checked on every update, "tomorrow" turns into today at midnight, see onMidnight()
+        if (state == ProtectionState.PAUSED) {
+            String text = pausedUntilText.format(TimeUtils.formatTimestamp(snapshot.pauseUntil, tomorrowText));
+            if (text != shownPausedUntil) {
+                shownPausedUntil = text;
+                pausedUntil.setText(text);
+            }
         }
-    }
 
-    // Get current service state from SharedPreferences
-    private InterceptCallService.State getServiceState() {
-        String stateStr = preferences.getString(Preferences.KEY_STATE, InterceptCallService.State.STOPPED.toString());
-        try {
-            return InterceptCallService.State.valueOf(stateStr);
-        } catch (IllegalArgumentException e) {
-            return InterceptCallService.State.STOPPED;
+        // Update rejected calls counter
+        String counter = counterText.format(snapshot.rejectedCalls, snapshot.rejectedToday);
+        if (counter != shownCounter) {
+            shownCounter = counter;
+            rejectedCounter.setText(counter);
         }
-    }
-
-    // Set service state in SharedPreferences and notify running service
-    private void setServiceState(InterceptCallService.State state) {
-        preferences.edit().putString(Preferences.KEY_STATE, state.toString()).apply();
 
-        Intent intent = new Intent(this, InterceptCallService.class);
-        intent.setAction(InterceptCallService.ACTION_SET_STATE);
-        intent.putExtra("state", state.toString());
-        startService(intent);
-    }
-
-    // Start periodic UI updates
-    private void startPeriodicUpdates() {
-        updateRunnable = new Runnable() {
-            @Override
-            public void run() {
-                updateUI();
-                updateHandler.postDelayed(this, 1000);
-            }
-        };
-        updateHandler.postDelayed(updateRunnable, 1000);
-    }
-
-    // Stop periodic UI updates
-    private void stopPeriodicUpdates() {
-        if (updateRunnable != null) {
-            updateHandler.removeCallbacks(updateRunnable);
+        // Update button states - now requires ALL permissions
+        boolean permissionsGranted = permissionState.get().allGranted();
+        startButton.setEnabled(permissionsGranted && state != ProtectionState.ACTIVE);
+        pauseButton.setEnabled(permissionsGranted && state == ProtectionState.ACTIVE);
+        stopButton.setEnabled(permissionsGranted && state != ProtectionState.STOPPED);
+
+        // Update checkbox state
+        if (allowRecallCheckbox.isChecked() != snapshot.allowRecall) {
+            allowRecallCheckbox.setChecked(snapshot.allowRecall);
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,13 @@
+package ru.gwynerva.nuc;
+
+import android.app.Application;
+
+// Starts reading what every entry point needs before the first activity, service or receiver is created.
+// Reading happens on background threads, nothing here may touch the disk itself.
+public class NucApplication extends Application {
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        SettingsStore.getInstance(this);
+    }
+}
@@ -0,0 +1,108 @@
+package ru.gwynerva.nuc;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.Set;
+
+// Keeps the user's allow and block number patterns compiled.
+// Patterns are recompiled on a background thread whenever they change and swapped in at once,
+// screening always sees either the old or the new matcher, never a partial one.
+public class PatternIndex {
+    private final String TAG = "NUC Pattern Index";
+
+    private final SettingsStore settings;
+    // Called on the index thread after the matcher changed
+    private final Runnable changeListener;
+    private HandlerThread thread;
+    private Handler handler;
+    private final Runnable compileRunnable = this::compile;
+
+    // Pattern sets are replaced, never modified, so a changed reference means changed patterns
+    private Set<String> compiledAllowPatterns;
+    private Set<String> compiledBlockPatterns;
+    private final SettingsStore.Listener settingsListener = settings -> {
+        if (settings.getAllowPatterns() != compiledAllowPatterns || settings.getBlockPatterns() != compiledBlockPatterns) {
+            requestCompile();
+        }
+    };
+
+    private volatile NumberPatternMatcher matcher = NumberPatternMatcher.EMPTY;
+    // Dialing rules for patterns written with a trunk or international prefix, -1 until known
+    private volatile int region = -1;
+
+    public PatternIndex(Context context, Runnable changeListener) {
+        this.settings = SettingsStore.getInstance(context);
+        this.changeListener = changeListener;
+    }
+
+    public void start() {
+        thread = new HandlerThread("nuc-patterns", Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        handler = new Handler(thread.getLooper());
+
+        settings.addListener(settingsListener);
+        requestCompile();
+    }
+
+    public void stop() {
+        settings.removeListener(settingsListener);
+        if (thread != null) {
+            thread.quitSafely();
+            thread = null;
+        }
+    }
+
+    public NumberPatternMatcher getMatcher() {
+        return matcher;
+    }
+
+    public void setRegion(int region) {
+        if (this.region != region) {
+            this.region = region;
+            requestCompile();
+        }
+    }
+
+    public void requestCompile() {
+        if (handler != null) {
+            handler.removeCallbacks(compileRunnable);
+            handler.post(compileRunnable);
+        }
+    }
+
+    private void compile() {
+        long startTime = SystemClock.elapsedRealtime();
+        NumberPatternMatcher.Compiler compiler = new NumberPatternMatcher.Compiler(region);
+
+        Set<String> allowPatterns = settings.getAllowPatterns();
+        Set<String> blockPatterns = settings.getBlockPatterns();
+        addAll(compiler, allowPatterns, NumberPatternMatcher.ALLOW);
+        addAll(compiler, blockPatterns, NumberPatternMatcher.BLOCK);
+
+        try {
+            matcher = compiler.compile();
+        } catch (IllegalStateException e) {
+            Log.e(TAG, "Failed to compile number patterns, keeping the previous ones.", e);
+            return;
+        }
+        compiledAllowPatterns = allowPatterns;
+        compiledBlockPatterns = blockPatterns;
+        changeListener.run();
+
+        Log.i(TAG, "Compiled " + matcher.getPatternCount() + " patterns into " + matcher.getStateCount()
+                + " states in " + (SystemClock.elapsedRealtime() - startTime) + " ms.");
+    }
+
+    private void addAll(NumberPatternMatcher.Compiler compiler, Set<String> patterns, byte verdict) {
+        for (String pattern : patterns) {
+            if (!compiler.add(pattern, verdict)) {
+                Log.w(TAG, "Skipping invalid number pattern: " + pattern);
+            }
+        }
+    }
+}
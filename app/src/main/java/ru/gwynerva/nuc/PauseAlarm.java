@@ -0,0 +1,46 @@
+package ru.gwynerva.nuc;
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Build;
+
+// Single wake-up at the end of a pause, delivered to InterceptCallService as ACTION_PAUSE_EXPIRED.
+//
+// Screening does not wait for it, ProtectionStateMachine.isActive() sees the end of the pause by itself.
+// The alarm brings the saved state, the notification, the tile and the UI up to date.
+// Alarms do not survive reboots, BootCompleteReceiver arms it again from the saved pause time.
+public final class PauseAlarm {
+    private PauseAlarm() {}
+
+    public static void schedule(Context context, long pauseUntil) {
+        AlarmManager alarmManager = context.getSystemService(AlarmManager.class);
+        if (alarmManager == null) {
+            return;
+        }
+
+        PendingIntent operation = createOperation(context);
+        // The exact alarm permission is denied by default from Android 14, MainActivity asks for it when pausing.
+        // Without it the system may deliver the alarm as late as the next doze maintenance window.
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.S || alarmManager.canScheduleExactAlarms()) {
+            alarmManager.setExactAndAllowWhileIdle(AlarmManager.RTC_WAKEUP, pauseUntil, operation);
+        } else {
+            alarmManager.setAndAllowWhileIdle(AlarmManager.RTC_WAKEUP, pauseUntil, operation);
+        }
+    }
+
+    public static void cancel(Context context) {
+        AlarmManager alarmManager = context.getSystemService(AlarmManager.class);
+        if (alarmManager != null) {
+            alarmManager.cancel(createOperation(context));
+        }
+    }
+
+    private static PendingIntent createOperation(Context context) {
+        Intent intent = new Intent(context, InterceptCallService.class);
+        intent.setAction(InterceptCallService.ACTION_PAUSE_EXPIRED);
+        return PendingIntent.getService(context, 0, intent,
+                PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE);
+    }
+}
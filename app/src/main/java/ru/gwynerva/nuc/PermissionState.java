@@ -0,0 +1,104 @@
+package ru.gwynerva.nuc;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+
+import androidx.core.content.ContextCompat;
+
+// Cached result of the PermissionManager checks, each of which is a binder call.
+//
+// The snapshot is refreshed on the events that can change it: permission screen results, activity
+// resume and package changes. Revoking a runtime permission kills the process, so a cached grant
+// can never be stale, only a cached denial can. That is why isContactsPermissionGranted() checks
+// again on a denial and the granted case, the one on every screened call, is a single volatile read.
+//
+// The call screening role is different: taking it away does not kill the process and apps are not told
+// about it. The tile and the service check it again with refreshRole() whenever they are entered.
+public final class PermissionState {
+    public static final class Snapshot {
+        public final boolean callScreeningRoleHeld;
+        public final boolean contactsGranted;
+        public final boolean notificationsGranted;
+
+        Snapshot(boolean callScreeningRoleHeld, boolean contactsGranted, boolean notificationsGranted) {
+            this.callScreeningRoleHeld = callScreeningRoleHeld;
+            this.contactsGranted = contactsGranted;
+            this.notificationsGranted = notificationsGranted;
+        }
+
+        public boolean allGranted() {
+            return callScreeningRoleHeld && contactsGranted && notificationsGranted;
+        }
+    }
+
+    private static PermissionState instance;
+
+    private final Context context;
+    // Null until first read
+    private volatile Snapshot snapshot;
+
+    public static synchronized PermissionState getInstance(Context context) {
+        if (instance == null) {
+            instance = new PermissionState(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private PermissionState(Context context) {
+        this.context = context;
+
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+        filter.addAction(Intent.ACTION_PACKAGE_REPLACED);
+        filter.addDataScheme("package");
+        filter.addDataSchemeSpecificPart(context.getPackageName(), 0);
+        ContextCompat.registerReceiver(context, new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                refresh();
+            }
+        }, filter, ContextCompat.RECEIVER_NOT_EXPORTED);
+    }
+
+    public Snapshot get() {
+        Snapshot current = snapshot;
+        return current != null ? current : refresh();
+    }
+
+    // Check everything again, call after anything that may have changed a permission or the role
+    public Snapshot refresh() {
+        Snapshot current = new Snapshot(
+                PermissionManager.isCallScreeningRoleHeld(context),
+                PermissionManager.isContactsPermissionGranted(context),
+                PermissionManager.isNotificationsPermissionGranted(context));
+        snapshot = current;
+        return current;
+    }
+
+    // Check only the call screening role again, a single binder call
+    public Snapshot refreshRole() {
+        Snapshot current = get();
+        boolean held = PermissionManager.isCallScreeningRoleHeld(context);
+        if (held == current.callScreeningRoleHeld) {
+            return current;
+        }
+        current = new Snapshot(held, current.contactsGranted, current.notificationsGranted);
+        snapshot = current;
+        return current;
+    }
+
+    public boolean isContactsPermissionGranted() {
+        Snapshot current = get();
+        if (current.contactsGranted) {
+            return true;
+        }
+        // May have been granted in the system settings since the last refresh
+        if (PermissionManager.isContactsPermissionGranted(context)) {
+            snapshot = new Snapshot(current.callScreeningRoleHeld, true, current.notificationsGranted);
+            return true;
+        }
+        return false;
+    }
+}
@@ -21,10 +21,13 @@ public class PermissionsActivity extends ComponentActivity {
     private ActivityResultLauncher<String> contactPermissionLauncher;
     private ActivityResultLauncher<String> notificationPermissionLauncher;
 
+    private PermissionState permissionState;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_permissions);
+        permissionState = PermissionState.getInstance(this);
 
         initViews();
         registerLaunchers();
@@ -84,21 +87,24 @@ public class PermissionsActivity extends ComponentActivity {
         checkAllPermissionsGranted();
     }
 
+    // Called after every permission request and on resume, the only places permissions change from here
     private void updatePermissionStatus() {
+        PermissionState.Snapshot permissions = permissionState.refresh();
+
         // Update call screening icon
-        boolean isCallScreeningGranted = PermissionManager.isCallScreeningRoleHeld(this);
+        boolean isCallScreeningGranted = permissions.callScreeningRoleHeld;
         iconCalls.setColorFilter(ContextCompat.getColor(this,
                 isCallScreeningGranted ? R.color.active : R.color.stopped));
         buttonCalls.setEnabled(!isCallScreeningGranted);
 
         // Update contacts icon
-        boolean isContactsGranted = PermissionManager.isContactsPermissionGranted(this);
+        boolean isContactsGranted = permissions.contactsGranted;
         iconContacts.setColorFilter(ContextCompat.getColor(this,
                 isContactsGranted ? R.color.active : R.color.stopped));
         buttonContacts.setEnabled(!isContactsGranted);
 
         // Update notifications icon - ensure this is checked independently
-        boolean isNotificationsGranted = PermissionManager.isNotificationsPermissionGranted(this);
+        boolean isNotificationsGranted = permissions.notificationsGranted;
         iconNotifications.setColorFilter(ContextCompat.getColor(this,
                 isNotificationsGranted ? R.color.active : R.color.stopped));
         buttonNotifications.setEnabled(!isNotificationsGranted);
@@ -106,7 +112,7 @@ public class PermissionsActivity extends ComponentActivity {
 
     private void checkAllPermissionsGranted() {
         // Only finish activity if ALL permissions have been granted
-        if (PermissionManager.areAllPermissionsGranted(this)) {
+        if (permissionState.get().allGranted()) {
             finish();
         }
     }
@@ -1,9 +1,13 @@
 package ru.gwynerva.nuc;
 
+// Keys of the old nuc_preferences file, only read to migrate to SettingsStore and CallStats
 public class Preferences {
     public static final String NAME = "nuc_preferences";
     public static final String KEY_STATE = "state";
     public static final String KEY_REJECTED_CALLS = "rejected_calls";
     public static final String KEY_ALLOW_RECALL = "allow_recall";
     public static final String KEY_PAUSE_UNTIL = "pause_until";
+    public static final String KEY_SCREENING_DEADLINE = "screening_deadline";
+    public static final String KEY_ALLOW_PATTERNS = "allow_patterns";
+    public static final String KEY_BLOCK_PATTERNS = "block_patterns";
 }
@@ -0,0 +1,193 @@
+package ru.gwynerva.nuc;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+// Protection state shared by the service, the UI and the receivers of this process.
+//
+// Every change replaces an immutable snapshot. Listeners are called on the main thread with the newest
+// snapshot, only when something actually changed, and several changes in a row are delivered once.
+// State and pause end are changed by a ProtectionStateMachine, which keeps them in SettingsStore along
+// with the recall option, so they survive the process.
+public final class ProtectionStateRepository {
+    private static final String TAG = "NUC Protection State";
+
+    public static final class Snapshot {
+        public final ProtectionState state;
+        // Pause end, 0 unless paused
+        public final long pauseUntil;
+        public final boolean allowRecall;
+        public final long rejectedCalls;
+        public final long rejectedToday;
+
+        Snapshot(ProtectionState state, long pauseUntil, boolean allowRecall,
+                 long rejectedCalls, long rejectedToday) {
+            this.state = state;
+            this.pauseUntil = pauseUntil;
+            this.allowRecall = allowRecall;
+            this.rejectedCalls = rejectedCalls;
+            this.rejectedToday = rejectedToday;
+        }
+
+        private boolean sameAs(Snapshot other) {
+            return state == other.state && pauseUntil == other.pauseUntil && allowRecall == other.allowRecall
+                    && rejectedCalls == other.rejectedCalls && rejectedToday == other.rejectedToday;
+        }
+    }
+
+    public interface Listener {
+        void onProtectionStateChanged(Snapshot snapshot);
+    }
+
+    private static ProtectionStateRepository instance;
+
+    private final Context context;
+    private final SettingsStore settings;
+    private final ProtectionStateMachine stateMachine;
+    private volatile Snapshot snapshot;
+
+    private final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Runnable dispatchRunnable = this::dispatch;
+    // Guarded by this
+    private boolean dispatchScheduled = false;
+
+    public static synchronized ProtectionStateRepository getInstance(Context context) {
+        if (instance == null) {
+            instance = new ProtectionStateRepository(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private ProtectionStateRepository(Context context) {
+        this.context = context;
+        settings = SettingsStore.getInstance(context);
+        stateMachine = new ProtectionStateMachine(settings, Clock.SYSTEM);
+        snapshot = new Snapshot(stateMachine.getState(), stateMachine.getPauseUntil(), settings.getAllowRecall(), 0, 0);
+    }
+
+    public Snapshot getSnapshot() {
+        return snapshot;
+    }
+
+    // Screening reads the state from the machine itself, changes must go through setState()
+    public ProtectionStateMachine getStateMachine() {
+        return stateMachine;
+    }
+
+    // Listeners must be added and removed on the main thread
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    //
+    // Changes
+    //
+
+    // pauseUntil is only kept for the paused state
+    public void setState(ProtectionState state, long pauseUntil) {
+        synchronized (this) {
+            ProtectionState previous = stateMachine.getState();
+            if (!stateMachine.setState(state, pauseUntil)) {
+                return;
+            }
+            publishState();
+            Log.i(TAG, "State changed from " + previous + " to " + state);
+        }
+        onStateChanged();
+    }
+
+    public void setAllowRecall(boolean allowRecall) {
+        synchronized (this) {
+            Snapshot current = snapshot;
+            if (!publish(new Snapshot(current.state, current.pauseUntil, allowRecall,
+                    current.rejectedCalls, current.rejectedToday))) {
+                return;
+            }
+        }
+        settings.edit().setAllowRecall(allowRecall).apply();
+    }
+
+    // Called by CallStats, may run on any thread
+    public void setCounters(long rejectedCalls, long rejectedToday) {
+        synchronized (this) {
+            Snapshot current = snapshot;
+            publish(new Snapshot(current.state, current.pauseUntil, current.allowRecall,
+                    rejectedCalls, rejectedToday));
+        }
+    }
+
+    // Resume protection if the pause is over, otherwise make sure the pause alarm is armed.
+    // Alarms are lost on reboot and the process may have been dead when the pause ended.
+    public void checkPauseExpiration() {
+        boolean resumed;
+        synchronized (this) {
+            resumed = stateMachine.resumeIfPauseOver();
+            if (resumed) {
+                publishState();
+            }
+        }
+
+        if (resumed) {
+            Log.i(TAG, "Pause is over.");
+            onStateChanged();
+        } else {
+            // Only set while paused
+            long pauseUntil = stateMachine.getPauseUntil();
+            if (pauseUntil > 0) {
+                PauseAlarm.schedule(context, pauseUntil);
+            }
+        }
+    }
+
+    // Guarded by this, publishes the state of the machine
+    private void publishState() {
+        Snapshot current = snapshot;
+        publish(new Snapshot(stateMachine.getState(), stateMachine.getPauseUntil(), current.allowRecall,
+                current.rejectedCalls, current.rejectedToday));
+    }
+
+    // The pause alarm and the tile follow the state
+    private void onStateChanged() {
+        if (stateMachine.getState() == ProtectionState.PAUSED) {
+            PauseAlarm.schedule(context, stateMachine.getPauseUntil());
+        } else {
+            PauseAlarm.cancel(context);
+        }
+        ProtectionTileService.requestUpdate(context);
+    }
+
+    // Guarded by this, returns false if nothing changed
+    private boolean publish(Snapshot next) {
+        if (next.sameAs(snapshot)) {
+            return false;
+        }
+
+        snapshot = next;
+        if (!dispatchScheduled) {
+            dispatchScheduled = true;
+            mainHandler.post(dispatchRunnable);
+        }
+        return true;
+    }
+
+    private void dispatch() {
+        Snapshot current;
+        synchronized (this) {
+            dispatchScheduled = false;
+            current = snapshot;
+        }
+
+        for (Listener listener : listeners) {
+            listener.onProtectionStateChanged(current);
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package ru.gwynerva.nuc;
+
+import android.app.PendingIntent;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.graphics.drawable.Icon;
+import android.os.Build;
+import android.service.quicksettings.Tile;
+import android.service.quicksettings.TileService;
+import android.util.Log;
+
+import java.util.Calendar;
+
+// Quick Settings tile that shows the protection state and changes it without opening the app.
+//
+// A tap pauses active protection for 2 hours and turns paused or stopped protection back on. Stopping
+// and the other pause lengths are in MainActivity, a long press on the tile opens it.
+//
+// The tile is declared active: the system binds it only when requestUpdate() asks for it, which
+// ProtectionStateRepository does on every state change, instead of every time the panel is opened.
+public class ProtectionTileService extends TileService {
+    private static final String TAG = "NUC Protection Tile";
+
+    private static final int PAUSE_HOURS = 2;
+
+    private ProtectionStateRepository stateRepository;
+    private final ProtectionStateRepository.Listener stateListener = this::updateTile;
+
+    // Asks the system to refresh the tile, cheap when the tile is not added
+    public static void requestUpdate(Context context) {
+        try {
+            TileService.requestListeningState(context, new ComponentName(context, ProtectionTileService.class));
+        } catch (RuntimeException e) {
+            // Thrown on some devices while the system UI is restarting, the tile is refreshed when it is bound again
+            Log.w(TAG, "Failed to request tile update.", e);
+        }
+    }
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        stateRepository = ProtectionStateRepository.getInstance(this);
+    }
+
+    @Override
+    public void onStartListening() {
+        super.onStartListening();
+        // The role may have been taken away in the system settings
+        PermissionState.getInstance(this).refreshRole();
+        stateRepository.addListener(stateListener);
+        updateTile(stateRepository.getSnapshot());
+    }
+
+    @Override
+    public void onStopListening() {
+        stateRepository.removeListener(stateListener);
+        super.onStopListening();
+    }
+
+    @Override
+    public void onClick() {
+        // Protection is not changed from a locked screen
+        if (isSecure() && isLocked()) {
+            unlockAndRun(this::toggle);
+        } else {
+            toggle();
+        }
+    }
+
+    private void toggle() {
+        ProtectionStateRepository.Snapshot snapshot = stateRepository.getSnapshot();
+        if (snapshot.state == ProtectionState.ACTIVE) {
+            Calendar cal = Calendar.getInstance();
+            cal.add(Calendar.HOUR, PAUSE_HOURS);
+            stateRepository.setState(ProtectionState.PAUSED, cal.getTimeInMillis());
+            return;
+        }
+
+        // Protection can not work without permissions, ask for them like the app does on start
+        if (!PermissionState.getInstance(this).refresh().allGranted()) {
+            showPermissions();
+            return;
+        }
+
+        stateRepository.setState(ProtectionState.ACTIVE, 0);
+
+        // Shows the notification, the app may not have run since the reboot
+        try {
+            startService(new Intent(this, InterceptCallService.class));
+        } catch (IllegalStateException e) {
+            Log.w(TAG, "Failed to start the service from the tile.", e);
+        }
+    }
+
+    private void showPermissions() {
+        Intent intent = new Intent(this, PermissionsActivity.class);
+        intent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.UPSIDE_DOWN_CAKE) {
+            startActivityAndCollapse(PendingIntent.getActivity(this, 0, intent, PendingIntent.FLAG_IMMUTABLE));
+        } else {
+            startActivityAndCollapse(intent);
+        }
+    }
+
+    private void updateTile(ProtectionStateRepository.Snapshot snapshot) {
+        Tile tile = getQsTile();
+        if (tile == null) {
+            return;
+        }
+
+        switch (snapshot.state) {
+            case ACTIVE:
+                tile.setState(Tile.STATE_ACTIVE);
+                tile.setIcon(Icon.createWithResource(this, R.drawable.protection_active));
+                tile.setSubtitle(getString(R.string.tile_active));
+                break;
+            case PAUSED:
+                tile.setState(Tile.STATE_INACTIVE);
+                tile.setIcon(Icon.createWithResource(this, R.drawable.protection_pause));
+                tile.setSubtitle(getString(R.string.tile_paused_until,
+                        TimeUtils.formatTimestamp(snapshot.pauseUntil, getString(R.string.tomorrow))));
+                break;
+            case STOPPED:
+            default:
+                tile.setState(Tile.STATE_INACTIVE);
+                tile.setIcon(Icon.createWithResource(this, R.drawable.protection_active));
+                tile.setSubtitle(getString(R.string.tile_stopped));
+                break;
+        }
+        tile.setLabel(getString(R.string.tile_label));
+        tile.updateTile();
+    }
+}
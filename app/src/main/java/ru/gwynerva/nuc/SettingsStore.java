@@ -0,0 +1,416 @@
+package ru.gwynerva.nuc;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+
+// Typed app settings, kept in memory and saved to a small binary file.
+//
+// Reads never touch the disk. Changes are made through an Editor, and every apply() replaces the
+// in-memory values at once. Saving happens on a background thread, so several edits in a row end up
+// in a single atomic write of the newest values.
+//
+// The file is read on the settings thread, started by NucApplication when the process starts, so the
+// main thread finds it loaded instead of reading it. Anything that comes earlier waits for the load.
+//
+// Settings used to live in the nuc_preferences XML file, they are migrated from it when there is no
+// settings file yet. Also the Storage of the protection state machine.
+public final class SettingsStore implements Storage {
+    private static final String TAG = "NUC Settings";
+
+    // Telecom gives up on a screening service after 5 seconds, answer well before that
+    public static final long DEFAULT_SCREENING_DEADLINE = 2000;
+    // Shorter deadlines allow calls before the rules had a chance, longer ones come after Telecom gave up
+    public static final long MIN_SCREENING_DEADLINE = 100;
+    public static final long MAX_SCREENING_DEADLINE = 4500;
+
+    // 1: state, pause end, allow recall, screening deadline, allow and block patterns
+    private static final int FILE_VERSION = 1;
+
+    // Immutable, replaced as a whole on every change
+    private static final class Values {
+        ProtectionState state = ProtectionState.STOPPED;
+        long pauseUntil = 0;
+        boolean allowRecall = true;
+        long screeningDeadline = DEFAULT_SCREENING_DEADLINE;
+        Set<String> allowPatterns = Collections.emptySet();
+        Set<String> blockPatterns = Collections.emptySet();
+
+        Values copy() {
+            Values copy = new Values();
+            copy.state = state;
+            copy.pauseUntil = pauseUntil;
+            copy.allowRecall = allowRecall;
+            copy.screeningDeadline = screeningDeadline;
+            copy.allowPatterns = allowPatterns;
+            copy.blockPatterns = blockPatterns;
+            return copy;
+        }
+    }
+
+    public interface Listener {
+        // Called on the thread that applied the change
+        void onSettingsChanged(SettingsStore settings);
+    }
+
+    private static SettingsStore instance;
+
+    // Null until loaded
+    private volatile Values values;
+    private final CountDownLatch loaded = new CountDownLatch(1);
+    // The file was written by a newer version of the app, or is damaged and could not be moved aside.
+    // It is never overwritten then.
+    private volatile boolean keepFile = false;
+    // A damaged settings file is moved here before anything is written, the newest one is kept
+    private final File damagedFile;
+    private final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    private final AtomicFile file;
+    private final Handler writeHandler;
+    private final Runnable writeRunnable = this::write;
+    // Guarded by this
+    private boolean writeScheduled = false;
+
+    public static synchronized SettingsStore getInstance(Context context) {
+        if (instance == null) {
+            instance = new SettingsStore(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private SettingsStore(Context context) {
+        file = new AtomicFile(new File(context.getFilesDir(), "settings.bin"));
+        damagedFile = new File(context.getFilesDir(), "settings.bin.damaged");
+
+        HandlerThread thread = new HandlerThread("nuc-settings", Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        writeHandler = new Handler(thread.getLooper());
+
+        writeHandler.post(() -> {
+            Values current = null;
+            boolean migrated = false;
+            try {
+                current = load();
+                if (current == null) {
+                    current = migrate(context.getSharedPreferences(Preferences.NAME, Context.MODE_PRIVATE));
+                    migrated = true;
+                }
+            } finally {
+                // Nothing must wait forever, defaults are better than a hang
+                values = current != null ? current : new Values();
+                loaded.countDown();
+            }
+            if (migrated) {
+                scheduleWrite();
+            }
+        });
+    }
+
+    // Waits for the first load, which only takes a while right after the process started
+    private Values values() {
+        Values current = values;
+        if (current != null) {
+            return current;
+        }
+
+        boolean interrupted = false;
+        while (true) {
+            try {
+                loaded.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        return values;
+    }
+
+    //
+    // Reading
+    //
+
+    @Override
+    public ProtectionState getState() {
+        return values().state;
+    }
+
+    @Override
+    public long getPauseUntil() {
+        return values().pauseUntil;
+    }
+
+    public boolean getAllowRecall() {
+        return values().allowRecall;
+    }
+
+    public long getScreeningDeadline() {
+        return values().screeningDeadline;
+    }
+
+    // Unmodifiable
+    public Set<String> getAllowPatterns() {
+        return values().allowPatterns;
+    }
+
+    // Unmodifiable
+    public Set<String> getBlockPatterns() {
+        return values().blockPatterns;
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    //
+    // Changes
+    //
+
+    public Editor edit() {
+        return new Editor();
+    }
+
+    @Override
+    public void setState(ProtectionState state, long pauseUntil) {
+        edit().setState(state).setPauseUntil(pauseUntil).apply();
+    }
+
+    // Collects changes, only the fields that were set are applied
+    public final class Editor {
+        private ProtectionState state;
+        private Long pauseUntil;
+        private Boolean allowRecall;
+        private Long screeningDeadline;
+        private Set<String> allowPatterns;
+        private Set<String> blockPatterns;
+
+        private Editor() {}
+
+        public Editor setState(ProtectionState state) {
+            this.state = state;
+            return this;
+        }
+
+        public Editor setPauseUntil(long pauseUntil) {
+            this.pauseUntil = pauseUntil;
+            return this;
+        }
+
+        public Editor setAllowRecall(boolean allowRecall) {
+            this.allowRecall = allowRecall;
+            return this;
+        }
+
+        // Kept between MIN_SCREENING_DEADLINE and MAX_SCREENING_DEADLINE
+        public Editor setScreeningDeadline(long screeningDeadline) {
+            this.screeningDeadline = clampScreeningDeadline(screeningDeadline);
+            return this;
+        }
+
+        public Editor setAllowPatterns(Set<String> patterns) {
+            this.allowPatterns = Collections.unmodifiableSet(new HashSet<>(patterns));
+            return this;
+        }
+
+        public Editor setBlockPatterns(Set<String> patterns) {
+            this.blockPatterns = Collections.unmodifiableSet(new HashSet<>(patterns));
+            return this;
+        }
+
+        // Changes are visible right away and saved in the background
+        public void apply() {
+            // Not under the lock, the load takes it to schedule the migration write
+            values();
+            synchronized (SettingsStore.this) {
+                Values next = values.copy();
+                if (state != null) {
+                    next.state = state;
+                }
+                if (pauseUntil != null) {
+                    next.pauseUntil = pauseUntil;
+                }
+                if (allowRecall != null) {
+                    next.allowRecall = allowRecall;
+                }
+                if (screeningDeadline != null) {
+                    next.screeningDeadline = screeningDeadline;
+                }
+                if (allowPatterns != null) {
+                    next.allowPatterns = allowPatterns;
+                }
+                if (blockPatterns != null) {
+                    next.blockPatterns = blockPatterns;
+                }
+                values = next;
+                scheduleWrite();
+            }
+
+            for (Listener listener : listeners) {
+                listener.onSettingsChanged(SettingsStore.this);
+            }
+        }
+    }
+
+    //
+    // Persistence
+    //
+
+    private synchronized void scheduleWrite() {
+        if (!writeScheduled) {
+            writeScheduled = true;
+            writeHandler.post(writeRunnable);
+        }
+    }
+
+    // Returns null if there is no file yet. A damaged file gives the defaults, the old preferences are
+    // not migrated again then, they are older than anything the file held. The damaged file is moved
+    // aside, so the next write does not replace it.
+    private Values load() {
+        if (!file.getBaseFile().exists()) {
+            return null;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(file.openRead()))) {
+            // Every string takes at least its 2 length bytes
+            long maxStrings = file.getBaseFile().length() / 2;
+
+            int version = in.readInt();
+            if (version < 1) {
+                Log.e(TAG, "Bad settings file version " + version + ", using defaults.");
+                return setDamagedFileAside();
+            }
+            if (version > FILE_VERSION) {
+                // Newer versions append to the layout, what this version knows is at the start
+                Log.w(TAG, "Settings file version " + version + " is newer, it will not be overwritten.");
+                keepFile = true;
+            }
+
+            Values loaded = new Values();
+            loaded.state = ProtectionState.values()[in.readByte()];
+            loaded.pauseUntil = in.readLong();
+            loaded.allowRecall = in.readBoolean();
+            loaded.screeningDeadline = clampScreeningDeadline(in.readLong());
+            loaded.allowPatterns = readStrings(in, maxStrings);
+            loaded.blockPatterns = readStrings(in, maxStrings);
+            return loaded;
+        } catch (IOException | RuntimeException e) {
+            Log.e(TAG, "Failed to read settings file, using defaults.", e);
+            return setDamagedFileAside();
+        }
+    }
+
+    // Returns the defaults, kept in memory only if the file could not be moved
+    private Values setDamagedFileAside() {
+        if (keepFile) {
+            // A newer app may still read what this one could not, leave the file where it is
+        } else if (file.getBaseFile().renameTo(damagedFile)) {
+            Log.w(TAG, "Damaged settings file moved to " + damagedFile.getName() + ".");
+        } else {
+            Log.e(TAG, "Failed to move the damaged settings file aside, it will not be overwritten.");
+            keepFile = true;
+        }
+        return new Values();
+    }
+
+    private static long clampScreeningDeadline(long screeningDeadline) {
+        return Math.max(MIN_SCREENING_DEADLINE, Math.min(screeningDeadline, MAX_SCREENING_DEADLINE));
+    }
+
+    private static Values migrate(SharedPreferences preferences) {
+        Values migrated = new Values();
+        try {
+            migrated.state = ProtectionState.valueOf(
+                    preferences.getString(Preferences.KEY_STATE, migrated.state.toString()));
+        } catch (IllegalArgumentException e) {
+            // Keep the default
+        }
+        migrated.pauseUntil = preferences.getLong(Preferences.KEY_PAUSE_UNTIL, 0);
+        migrated.allowRecall = preferences.getBoolean(Preferences.KEY_ALLOW_RECALL, true);
+        migrated.screeningDeadline = clampScreeningDeadline(
+                preferences.getLong(Preferences.KEY_SCREENING_DEADLINE, DEFAULT_SCREENING_DEADLINE));
+        migrated.allowPatterns = Collections.unmodifiableSet(new HashSet<>(
+                preferences.getStringSet(Preferences.KEY_ALLOW_PATTERNS, Collections.emptySet())));
+        migrated.blockPatterns = Collections.unmodifiableSet(new HashSet<>(
+                preferences.getStringSet(Preferences.KEY_BLOCK_PATTERNS, Collections.emptySet())));
+        Log.i(TAG, "Migrated settings from preferences.");
+        return migrated;
+    }
+
+    private void write() {
+        Values current;
+        synchronized (this) {
+            writeScheduled = false;
+            current = values;
+        }
+
+        if (keepFile) {
+            // Changes only last until the process ends, the file keeps its settings
+            Log.w(TAG, "Not saving settings over a newer or damaged settings file.");
+            return;
+        }
+
+        FileOutputStream stream = null;
+        try {
+            stream = file.startWrite();
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+            out.writeInt(FILE_VERSION);
+            out.writeByte(current.state.ordinal());
+            out.writeLong(current.pauseUntil);
+            out.writeBoolean(current.allowRecall);
+            out.writeLong(current.screeningDeadline);
+            writeStrings(out, current.allowPatterns);
+            writeStrings(out, current.blockPatterns);
+
+            out.flush();
+            file.finishWrite(stream);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to write settings file.", e);
+            if (stream != null) {
+                file.failWrite(stream);
+            }
+        }
+    }
+
+    // maxCount bounds what a damaged count can make us allocate
+    private static Set<String> readStrings(DataInputStream in, long maxCount) throws IOException {
+        int count = in.readInt();
+        if (count < 0 || count > maxCount) {
+            throw new IOException("Bad string count " + count);
+        }
+        Set<String> strings = new HashSet<>(count * 2);
+        for (int i = 0; i < count; i++) {
+            strings.add(in.readUTF());
+        }
+        return Collections.unmodifiableSet(strings);
+    }
+
+    private static void writeStrings(DataOutputStream out, Set<String> strings) throws IOException {
+        out.writeInt(strings.size());
+        for (String string : strings) {
+            out.writeUTF(string);
+        }
+    }
+}
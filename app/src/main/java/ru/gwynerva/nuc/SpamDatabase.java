@@ -0,0 +1,141 @@
+package ru.gwynerva.nuc;
+
+import android.content.Context;
+import android.os.FileObserver;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+
+// Read-only database of known spam numbers, kept in spam.db as a SortedKeyFile of PhoneNumbers.e164Key() keys.
+//
+// The file is memory-mapped and fronted by a Bloom filter built when it is loaded, so most lookups of
+// numbers that are not spam never touch the file. Lists run to millions of numbers, the filter takes
+// about 1.25 bytes per number.
+//
+// An update replaces the file, preferably with SortedKeyFile.write() which renames a finished file
+// into place. The change is noticed by a FileObserver, and the new file and filter are swapped in at
+// once without restarting the service. Lookups in progress keep using the old mapping.
+public class SpamDatabase {
+    private final String TAG = "NUC Spam Database";
+
+    public static final String FILE_NAME = "spam.db";
+
+    // A file may be written in several steps, load once it settles
+    private final int RELOAD_DELAY = 500;
+
+    private static final class Snapshot {
+        // Null if there is no database
+        @Nullable final SortedKeyFile keys;
+        final BloomFilter filter;
+
+        Snapshot(@Nullable SortedKeyFile keys, BloomFilter filter) {
+            this.keys = keys;
+            this.filter = filter;
+        }
+    }
+
+    private static final Snapshot EMPTY = new Snapshot(null, BloomFilter.EMPTY);
+
+    private final File file;
+    // Called on the database thread after the numbers changed
+    private final Runnable changeListener;
+    private HandlerThread thread;
+    private Handler handler;
+    private FileObserver fileObserver;
+    private final Runnable loadRunnable = this::load;
+
+    private volatile Snapshot snapshot = EMPTY;
+
+    public SpamDatabase(Context context, Runnable changeListener) {
+        this.file = new File(context.getFilesDir(), FILE_NAME);
+        this.changeListener = changeListener;
+    }
+
+    public void start() {
+        thread = new HandlerThread("nuc-spam", Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        handler = new Handler(thread.getLooper());
+
+        // Watch the directory, the file itself is replaced
+        fileObserver = new FileObserver(file.getParentFile(),
+                FileObserver.CLOSE_WRITE | FileObserver.MOVED_TO | FileObserver.DELETE) {
+            @Override
+            public void onEvent(int event, @Nullable String path) {
+                if (FILE_NAME.equals(path)) {
+                    handler.removeCallbacks(loadRunnable);
+                    handler.postDelayed(loadRunnable, RELOAD_DELAY);
+                }
+            }
+        };
+        fileObserver.startWatching();
+
+        handler.post(loadRunnable);
+    }
+
+    public void stop() {
+        if (fileObserver != null) {
+            fileObserver.stopWatching();
+            fileObserver = null;
+        }
+        if (thread != null) {
+            thread.quitSafely();
+            thread = null;
+        }
+    }
+
+    // Keys that are not positive never match
+    public boolean contains(long key) {
+        Snapshot current = snapshot;
+        return key > 0 && current.keys != null && current.filter.mightContain(key) && current.keys.contains(key);
+    }
+
+    public int size() {
+        SortedKeyFile keys = snapshot.keys;
+        return keys != null ? keys.size() : 0;
+    }
+
+    public long getFilterBytes() {
+        return snapshot.filter.sizeInBytes();
+    }
+
+    private void load() {
+        if (!file.exists()) {
+            if (snapshot != EMPTY) {
+                Log.i(TAG, "Spam database removed.");
+                snapshot = EMPTY;
+                changeListener.run();
+            }
+            return;
+        }
+
+        long startTime = SystemClock.elapsedRealtime();
+        SortedKeyFile keys;
+        try {
+            // Checks the header and the index
+            keys = SortedKeyFile.open(file);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to open spam database, keeping the previous one.", e);
+            return;
+        }
+
+        BloomFilter filter = new BloomFilter(keys.size(), BloomFilter.DEFAULT_BITS_PER_KEY);
+        try {
+            // Reads every block, the data of the last one may still be cut short
+            keys.forEach(filter::add);
+        } catch (IndexOutOfBoundsException e) {
+            Log.e(TAG, "Spam database is truncated, keeping the previous one.", e);
+            return;
+        }
+        snapshot = new Snapshot(keys, filter);
+        changeListener.run();
+
+        Log.i(TAG, "Loaded " + keys.size() + " spam numbers in " + (SystemClock.elapsedRealtime() - startTime) + " ms.");
+    }
+}
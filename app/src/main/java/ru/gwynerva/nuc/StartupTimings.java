@@ -0,0 +1,45 @@
+package ru.gwynerva.nuc;
+
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+// Cold start milestones, measured from the moment the process was started.
+// Logged as they happen and printed by the service dump.
+public final class StartupTimings {
+    private static final String TAG = "NUC Startup";
+
+    private static final List<String> names = new ArrayList<>();
+    private static final List<Long> times = new ArrayList<>();
+
+    private StartupTimings() {}
+
+    public static void mark(String name) {
+        long elapsed = SystemClock.uptimeMillis() - Process.getStartUptimeMillis();
+        synchronized (StartupTimings.class) {
+            names.add(name);
+            times.add(elapsed);
+        }
+        Log.i(TAG, name + " after " + elapsed + " ms.");
+    }
+
+    // Same as mark(), but only the first time for this name
+    public static void markOnce(String name) {
+        synchronized (StartupTimings.class) {
+            if (names.contains(name)) {
+                return;
+            }
+        }
+        mark(name);
+    }
+
+    public static synchronized void dump(PrintWriter writer, String prefix) {
+        for (int i = 0; i < names.size(); i++) {
+            writer.println(prefix + names.get(i) + "=" + times.get(i) + "ms");
+        }
+    }
+}
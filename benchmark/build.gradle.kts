@@ -0,0 +1,61 @@
+plugins {
+    java
+}
+
+java {
+    sourceCompatibility = JavaVersion.VERSION_11
+    targetCompatibility = JavaVersion.VERSION_11
+}
+
+dependencies {
+    implementation(project(":core"))
+    implementation(libs.jmh.core)
+    annotationProcessor(libs.jmh.generator.annprocess)
+}
+
+// Runs all benchmarks and writes machine-readable results to build/results/jmh/results.json.
+// JMH options can be passed through, e.g. ./gradlew :benchmark:jmh -Pjmh.args="ContactSet -prof gc"
+tasks.register<JavaExec>("jmh") {
+    group = "benchmark"
+    description = "Runs JMH benchmarks of the screening hot path."
+
+    val resultsFile = layout.buildDirectory.file("results/jmh/results.json")
+    mainClass.set("org.openjdk.jmh.Main")
+    classpath = sourceSets["main"].runtimeClasspath
+    args("-rf", "json", "-rff", resultsFile.get().asFile.absolutePath)
+    providers.gradleProperty("jmh.args").orNull?.let { extra ->
+        args(extra.split(" ").filter { it.isNotBlank() })
+    }
+
+    doFirst {
+        resultsFile.get().asFile.parentFile.mkdirs()
+    }
+}
+
+// Replays a synthetic or recorded call trace through the screening chain, see TraceReplay for the options,
+// e.g. ./gradlew :benchmark:replay -Preplay.args="--calls=5000000 --contact-ratio=0.2"
+tasks.register<JavaExec>("replay") {
+    group = "benchmark"
+    description = "Replays a call trace through the screening rules and reports throughput, latency and verdicts."
+
+    mainClass.set("ru.gwynerva.nuc.benchmark.TraceReplay")
+    classpath = sourceSets["main"].runtimeClasspath
+    providers.gradleProperty("replay.args").orNull?.let { extra ->
+        args(extra.split(" ").filter { it.isNotBlank() })
+    }
+}
+
+// Fails when a screening or UI path allocates more than its budget, see AllocationBudget
+val allocationBudget = tasks.register<JavaExec>("allocationBudget") {
+    group = "verification"
+    description = "Checks bytes allocated per screening decision and UI update against their budgets."
+
+    mainClass.set("ru.gwynerva.nuc.benchmark.AllocationBudget")
+    classpath = sourceSets["main"].runtimeClasspath
+    // ART removes hardly any allocations by escape analysis, do not let HotSpot hide them either
+    jvmArgs("-XX:-DoEscapeAnalysis")
+}
+
+tasks.named("check") {
+    dependsOn(allocationBudget)
+}
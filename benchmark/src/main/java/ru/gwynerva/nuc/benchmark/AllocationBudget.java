@@ -0,0 +1,183 @@
+package ru.gwynerva.nuc.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+
+import ru.gwynerva.nuc.BloomFilter;
+import ru.gwynerva.nuc.BurstDetector;
+import ru.gwynerva.nuc.CachedText;
+import ru.gwynerva.nuc.Clock;
+import ru.gwynerva.nuc.ContactNumberSet;
+import ru.gwynerva.nuc.NumberPatternMatcher;
+import ru.gwynerva.nuc.PhoneNumbers;
+import ru.gwynerva.nuc.ProtectionState;
+import ru.gwynerva.nuc.ProtectionStateMachine;
+import ru.gwynerva.nuc.ScreeningCall;
+import ru.gwynerva.nuc.ScreeningChain;
+import ru.gwynerva.nuc.ScreeningEngine;
+import ru.gwynerva.nuc.ScreeningRule;
+import ru.gwynerva.nuc.ScreeningRules;
+import ru.gwynerva.nuc.SortedKeyFile;
+import ru.gwynerva.nuc.Storage;
+import ru.gwynerva.nuc.TimeUtils;
+import ru.gwynerva.nuc.VerdictCache;
+
+// Bytes allocated per operation on the paths that run for every call and every UI update, checked against
+// fixed budgets with the thread allocation counter. Exits with an error when a path is over its budget.
+// Run with ./gradlew :benchmark:allocationBudget, it is also part of ./gradlew :benchmark:check.
+//
+// Android classes are not available here, so every path is put together from the app classes it runs:
+// - screening decision: ScreeningEngine.screen() with the rule chain of InterceptCallService
+// - UI tick: the texts MainActivity.updateUI() formats, with unchanged values
+// - formatTimestamp: the pause end shown by the UI and the notification
+public final class AllocationBudget {
+    private static final int WARMUP = 50_000;
+    private static final int MEASURED = 200_000;
+    // Measured several times and the least taken, a GC or JIT compilation during one round is not the path's
+    private static final int ROUNDS = 5;
+    // Bytes per operation not counted against the budget. Anything the path itself allocates is at least
+    // one object header, so this only absorbs counter noise left after taking the least round.
+    private static final double TOLERANCE = 1.0;
+    // Bytes of the TimeZone copy TimeUtils.formatTimestamp() gets to tell a changed time zone
+    private static final long TIME_ZONE_COPY = 64;
+
+    private interface Path {
+        void run(int i);
+    }
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    // Results are kept here so that nothing is optimized away
+    private static long sink = 0;
+
+    public static void main(String[] args) throws IOException {
+        THREADS.setThreadAllocatedMemoryEnabled(true);
+
+        boolean passed = true;
+        passed &= check("screening decision", 0, decisionPath());
+        // TimeZone.getDefault() returns a copy, the time zone is checked on every call
+        passed &= check("UI tick", TIME_ZONE_COPY, uiTickPath());
+        passed &= check("formatTimestamp", TIME_ZONE_COPY, formatTimestampPath());
+
+        if (!passed) {
+            System.exit(1);
+        }
+    }
+
+    // Prints the bytes per operation and returns false when they are over the budget
+    private static boolean check(String name, long budget, Path path) {
+        for (int i = 0; i < WARMUP; i++) {
+            path.run(i);
+        }
+
+        // The counter itself may allocate, measure it with an empty path and subtract that
+        long overhead = Long.MAX_VALUE;
+        long allocated = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            overhead = Math.min(overhead, measure(i -> { }));
+            allocated = Math.min(allocated, measure(path));
+        }
+        double perOperation = (double) Math.max(allocated - overhead, 0) / MEASURED;
+
+        boolean passed = perOperation <= budget + TOLERANCE;
+        System.out.printf(Locale.ROOT, "%-20s %10.2f bytes/op  budget %d  %s%n",
+                name, perOperation, budget, passed ? "OK" : "OVER BUDGET");
+        return passed;
+    }
+
+    private static long measure(Path path) {
+        long threadId = Thread.currentThread().getId();
+        long before = THREADS.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < MEASURED; i++) {
+            path.run(i);
+        }
+        return THREADS.getThreadAllocatedBytes(threadId) - before;
+    }
+
+    //
+    // Paths
+    //
+
+    private static Path decisionPath() throws IOException {
+        Random random = new Random(42);
+        int region = PhoneNumbers.regionIndex("RU");
+        String[] numbers = Numbers.random(random, 1024);
+
+        ContactNumberSet.Builder contacts = new ContactNumberSet.Builder();
+        for (String number : Numbers.random(random, 10_000)) {
+            contacts.add(number);
+        }
+        ContactNumberSet contactSet = contacts.build();
+
+        NumberPatternMatcher.Compiler compiler = new NumberPatternMatcher.Compiler(region);
+        compiler.add("+7 800*", NumberPatternMatcher.ALLOW);
+        compiler.add("+7 495 ???-??-??", NumberPatternMatcher.BLOCK);
+        compiler.add("+7 9?? 123*", NumberPatternMatcher.BLOCK);
+        NumberPatternMatcher matcher = compiler.compile();
+
+        long[] spam = new long[100_000];
+        for (int i = 0; i < spam.length; i++) {
+            spam[i] = 79_000_000_000L + (long) (random.nextDouble() * 999_999_999L);
+        }
+        Arrays.sort(spam);
+        int unique = 0;
+        for (long key : spam) {
+            if (unique == 0 || key != spam[unique - 1]) {
+                spam[unique++] = key;
+            }
+        }
+        File spamFile = File.createTempFile("spam", ".db");
+        spamFile.deleteOnExit();
+        SortedKeyFile.write(spamFile, spam, unique);
+        SortedKeyFile spamKeys = SortedKeyFile.open(spamFile);
+        BloomFilter spamFilter = new BloomFilter(spamKeys.size(), BloomFilter.DEFAULT_BITS_PER_KEY);
+        spamKeys.forEach(spamFilter::add);
+
+        // The chain of InterceptCallService, the spam rule asks the filter first like SpamDatabase.contains()
+        ScreeningChain chain = new ScreeningChain.Builder()
+                .add(new ScreeningRules.NotActiveRule())
+                .add(new ScreeningRules.NotIncomingRule())
+                .add(new ScreeningRules.EmptyNumberRule())
+                .add(new ScreeningRules.ContactsPermissionRule(contactSet::contains))
+                .add(new ScreeningRules.ContactRule(number -> contactSet.contains(number, region)))
+                .add(new ScreeningRules.PatternRule(() -> matcher, ScreeningRule.Verdict.ALLOW))
+                .add(new ScreeningRules.PatternRule(() -> matcher, ScreeningRule.Verdict.REJECT))
+                .add(new ScreeningRules.SpamRule(key -> spamFilter.mightContain(key) && spamKeys.contains(key)))
+                .add(new ScreeningRules.BurstRule(new BurstDetector(10 * 60 * 1000, 10), 5))
+                .add(new ScreeningRules.RecallRule(null, 1024, 5 * 60 * 1000, true))
+                .setDefault(ScreeningRule.Verdict.REJECT, "Unknown call number.")
+                .setCache(new VerdictCache(256))
+                .build();
+        ProtectionStateMachine stateMachine = new ProtectionStateMachine(
+                new Storage.Memory(ProtectionState.ACTIVE, 0), Clock.SYSTEM);
+        ScreeningEngine engine = new ScreeningEngine(chain, stateMachine, Clock.SYSTEM);
+        engine.setRegion(region);
+
+        return i -> {
+            ScreeningCall call = engine.screen(numbers[i & 1023], true, 1_760_000_000_000L + i * 1000L);
+            sink += call.verdict.ordinal();
+        };
+    }
+
+    private static Path uiTickPath() {
+        CachedText pausedUntilText = new CachedText("On pause until %1$s", Locale.ROOT);
+        CachedText counterText = new CachedText("%1$d calls skipped, %2$d today", Locale.ROOT);
+        long pauseUntil = System.currentTimeMillis() + 2 * 60 * 60 * 1000;
+
+        return i -> {
+            String pausedUntil = pausedUntilText.format(TimeUtils.formatTimestamp(pauseUntil, "tomorrow"));
+            String counter = counterText.format(1234, 5);
+            sink += pausedUntil.length() + counter.length();
+        };
+    }
+
+    private static Path formatTimestampPath() {
+        long pauseUntil = System.currentTimeMillis() + 2 * 60 * 60 * 1000;
+        return i -> sink += TimeUtils.formatTimestamp(pauseUntil, "tomorrow").length();
+    }
+}
@@ -0,0 +1,225 @@
+package ru.gwynerva.nuc.benchmark;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+// Incoming calls for TraceReplay, produced one at a time so that traces of millions of calls are never
+// held in memory. After next() returns true, time and number describe the call.
+abstract class CallTrace implements Closeable {
+    long time;
+    String number;
+
+    abstract boolean next() throws IOException;
+
+    @Override
+    public void close() throws IOException {
+    }
+
+    // Writes the rest of the trace as a recorded one
+    void writeTo(File file) throws IOException {
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(file))) {
+            writer.write("# time,number\n");
+            while (next()) {
+                writer.write(Long.toString(time));
+                writer.write(',');
+                writer.write(number);
+                writer.write('\n');
+            }
+        }
+    }
+
+    // Recorded trace, one "time,number" line per call with the time in epoch milliseconds.
+    // Empty lines and lines starting with # are skipped, calls must be in time order.
+    static final class Recorded extends CallTrace {
+        private final BufferedReader reader;
+        private int line = 0;
+
+        Recorded(File file) throws IOException {
+            reader = new BufferedReader(new FileReader(file));
+        }
+
+        @Override
+        boolean next() throws IOException {
+            String text;
+            while ((text = reader.readLine()) != null) {
+                line++;
+                if (text.isEmpty() || text.charAt(0) == '#') {
+                    continue;
+                }
+
+                int comma = text.indexOf(',');
+                if (comma < 0) {
+                    throw new IOException("Line " + line + " is not time,number: " + text);
+                }
+                try {
+                    time = Long.parseLong(text.substring(0, comma).trim());
+                } catch (NumberFormatException e) {
+                    throw new IOException("Line " + line + " has no valid time: " + text);
+                }
+                number = text.substring(comma + 1).trim();
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
+    }
+
+    // Synthetic trace of a phone that gets calls from two populations: contacts and unknown numbers.
+    //
+    // Callers of each population repeat with a Zipf distribution, a few numbers make most of the calls.
+    // Calls arrive as a Poisson process. On top of that robocall campaigns start now and then: a burst of
+    // calls from random numbers of one range, BurstDetector.RANGE_DIGITS last digits apart.
+    static final class Synthetic extends CallTrace {
+        static final long START_TIME = 1_760_000_000_000L;
+
+        private final Random random;
+        private final long calls;
+        private final double contactRatio;
+        private final long meanInterval;
+        private final double burstChance;
+        private final int burstSize;
+        private final long burstInterval;
+
+        private final long[] contactKeys;
+        private final long[] unknownKeys;
+        private final Zipf contactRanks;
+        private final Zipf unknownRanks;
+
+        private long produced = 0;
+        private long normalTime = START_TIME;
+        // Campaign in progress, none when burstRemaining is 0
+        private int burstRemaining = 0;
+        private long burstRange;
+        private long burstTime;
+
+        Synthetic(long seed, long calls, int contacts, int unknownCallers, double zipfExponent,
+                  double contactRatio, long meanInterval, double burstChance, int burstSize, long burstInterval) {
+            this.random = new Random(seed);
+            this.calls = calls;
+            this.contactRatio = contactRatio;
+            this.meanInterval = meanInterval;
+            this.burstChance = burstChance;
+            this.burstSize = burstSize;
+            this.burstInterval = burstInterval;
+
+            contactKeys = randomKeys(random, contacts);
+            unknownKeys = randomKeys(random, unknownCallers);
+            contactRanks = new Zipf(contacts, zipfExponent);
+            unknownRanks = new Zipf(unknownCallers, zipfExponent);
+        }
+
+        // E.164 keys of the contacts, what the contact index would hold
+        long[] getContactKeys() {
+            return contactKeys;
+        }
+
+        // E.164 keys of the unknown callers, most frequent first
+        long[] getUnknownKeys() {
+            return unknownKeys;
+        }
+
+        @Override
+        boolean next() {
+            if (produced == calls) {
+                return false;
+            }
+            produced++;
+
+            if (burstRemaining == 0 && random.nextDouble() < burstChance) {
+                burstRemaining = burstSize;
+                burstRange = randomKey(random) / 10_000;
+                burstTime = normalTime;
+            }
+
+            if (burstRemaining > 0 && burstTime <= normalTime) {
+                burstRemaining--;
+                time = burstTime;
+                burstTime += 1 + (long) (-Math.log(1 - random.nextDouble()) * burstInterval);
+                number = format(burstRange * 10_000 + random.nextInt(10_000), random);
+                return true;
+            }
+
+            time = normalTime;
+            normalTime += 1 + (long) (-Math.log(1 - random.nextDouble()) * meanInterval);
+            if (contactKeys.length > 0 && random.nextDouble() < contactRatio) {
+                number = format(contactKeys[contactRanks.sample(random)], random);
+            } else if (unknownKeys.length > 0) {
+                number = format(unknownKeys[unknownRanks.sample(random)], random);
+            } else {
+                number = format(randomKey(random), random);
+            }
+            return true;
+        }
+
+        // Russian mobile numbers as E.164 keys, without duplicates, in random order
+        private static long[] randomKeys(Random random, int count) {
+            long[] keys = new long[count];
+            int unique = 0;
+            while (unique < count) {
+                for (int i = unique; i < count; i++) {
+                    keys[i] = randomKey(random);
+                }
+                Arrays.sort(keys);
+                unique = 0;
+                for (long key : keys) {
+                    if (unique == 0 || key != keys[unique - 1]) {
+                        keys[unique++] = key;
+                    }
+                }
+            }
+
+            // Sorted keys would make the most frequent callers neighbours
+            for (int i = count - 1; i > 0; i--) {
+                int j = random.nextInt(i + 1);
+                long key = keys[i];
+                keys[i] = keys[j];
+                keys[j] = key;
+            }
+            return keys;
+        }
+
+        private static long randomKey(Random random) {
+            return 79_000_000_000L + (long) (random.nextDouble() * 999_999_999L);
+        }
+
+        // In the formats numbers come from the network
+        private static String format(long key, Random random) {
+            String digits = Long.toString(key).substring(1);
+            return random.nextInt(4) == 0 ? "8" + digits : "+7" + digits;
+        }
+    }
+
+    // Ranks 0 to n - 1, rank k drawn with probability proportional to 1 / (k + 1)^exponent
+    static final class Zipf {
+        private final double[] cumulative;
+
+        Zipf(int n, double exponent) {
+            cumulative = new double[n];
+            double sum = 0;
+            for (int k = 0; k < n; k++) {
+                sum += 1 / Math.pow(k + 1, exponent);
+                cumulative[k] = sum;
+            }
+            for (int k = 0; k < n; k++) {
+                cumulative[k] /= sum;
+            }
+        }
+
+        int sample(Random random) {
+            int index = Arrays.binarySearch(cumulative, random.nextDouble());
+            int rank = index >= 0 ? index : -index - 1;
+            return Math.min(rank, cumulative.length - 1);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package ru.gwynerva.nuc.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import ru.gwynerva.nuc.ContactNumberSet;
+
+// Contact membership check that replaced the PhoneLookup query, for small and huge address books.
+// Mapped is the snapshot file used right after boot, memory is the set built from the provider.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ContactSetBenchmark {
+    @Param({ "1000", "10000", "100000" })
+    public int contacts;
+
+    @Param({ "memory", "mapped" })
+    public String storage;
+
+    private File file;
+    private ContactNumberSet set;
+    private String[] known;
+    private String[] unknown;
+    private int next = 0;
+
+    @Setup
+    public void setup() throws IOException {
+        Random random = new Random(42);
+        known = Numbers.random(random, contacts);
+        unknown = Numbers.random(random, 1024);
+
+        ContactNumberSet.Builder builder = new ContactNumberSet.Builder();
+        for (String number : known) {
+            builder.add(number);
+        }
+        set = builder.build();
+
+        if (storage.equals("mapped")) {
+            file = File.createTempFile("contacts", ".bin");
+            set.writeTo(file);
+            set = ContactNumberSet.open(file);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (file != null) {
+            file.delete();
+        }
+    }
+
+    @Benchmark
+    public boolean containsContact() {
+        next = (next + 1) % known.length;
+        return set.contains(known[next]);
+    }
+
+    @Benchmark
+    public boolean containsUnknown() {
+        next = (next + 1) & 1023;
+        return set.contains(unknown[next]);
+    }
+
+    @Benchmark
+    public ContactNumberSet build() {
+        ContactNumberSet.Builder builder = new ContactNumberSet.Builder();
+        for (String number : known) {
+            builder.add(number);
+        }
+        return builder.build();
+    }
+}
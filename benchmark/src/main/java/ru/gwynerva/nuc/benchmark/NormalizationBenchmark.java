@@ -0,0 +1,48 @@
+package ru.gwynerva.nuc.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import ru.gwynerva.nuc.PhoneNumbers;
+
+// Turning a raw handle into the primitive keys used by the screening rules and the decision log
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NormalizationBenchmark {
+    private String[] numbers;
+    private int region;
+    private int next = 0;
+
+    @Setup
+    public void setup() {
+        numbers = Numbers.random(new Random(42), 1024);
+        region = PhoneNumbers.regionIndex("RU");
+    }
+
+    @Benchmark
+    public long key() {
+        next = (next + 1) & 1023;
+        return PhoneNumbers.key(numbers[next]);
+    }
+
+    @Benchmark
+    public long e164Key() {
+        next = (next + 1) & 1023;
+        return PhoneNumbers.e164Key(numbers[next], region);
+    }
+}
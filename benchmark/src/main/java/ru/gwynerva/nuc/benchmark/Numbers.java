@@ -0,0 +1,31 @@
+package ru.gwynerva.nuc.benchmark;
+
+import java.util.Random;
+
+// Synthetic phone numbers shared by the benchmarks
+final class Numbers {
+    private Numbers() {}
+
+    // Russian mobile numbers in the formats they come from the network and from contacts
+    static String random(Random random) {
+        long subscriber = 9_000_000_000L + (long) (random.nextDouble() * 999_999_999L);
+        String digits = Long.toString(subscriber);
+        switch (random.nextInt(3)) {
+            case 0:
+                return "+7" + digits;
+            case 1:
+                return "8" + digits;
+            default:
+                return "+7 (" + digits.substring(0, 3) + ") " + digits.substring(3, 6)
+                        + "-" + digits.substring(6, 8) + "-" + digits.substring(8);
+        }
+    }
+
+    static String[] random(Random random, int count) {
+        String[] numbers = new String[count];
+        for (int i = 0; i < count; i++) {
+            numbers[i] = random(random);
+        }
+        return numbers;
+    }
+}
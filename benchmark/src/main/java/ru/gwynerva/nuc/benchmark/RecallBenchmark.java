@@ -0,0 +1,76 @@
+package ru.gwynerva.nuc.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import ru.gwynerva.nuc.RecallTracker;
+
+// Recall tracker as used by the recall rule: look the number up, remember it if it is new.
+// Time moves forward on every call, so old numbers keep expiring while new ones are added.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RecallBenchmark {
+    private static final long PERIOD = 5 * 60 * 1000;
+
+    @Param({ "true", "false" })
+    public boolean mapped;
+
+    private File file;
+    private RecallTracker tracker;
+    private long[] keys;
+    private int next = 0;
+    private long now = 0;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        if (mapped) {
+            file = File.createTempFile("recall", ".bin");
+        }
+        tracker = new RecallTracker(file, 1024);
+
+        Random random = new Random(42);
+        keys = new long[4096];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = 1 + random.nextInt(2048);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (file != null) {
+            file.delete();
+        }
+    }
+
+    @Benchmark
+    public boolean insertAndExpire() {
+        next = (next + 1) & 4095;
+        now += 100;
+        long key = keys[next];
+        if (tracker.contains(key, now)) {
+            return true;
+        }
+        tracker.add(key, now + PERIOD, now);
+        return false;
+    }
+}
@@ -0,0 +1,96 @@
+package ru.gwynerva.nuc.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import ru.gwynerva.nuc.BloomFilter;
+import ru.gwynerva.nuc.SortedKeyFile;
+
+// Spam database lookup as done by the spam rule: Bloom filter first, then the mapped key file.
+// Most screened numbers are not spam, so the unknown case is the one that matters.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SpamDatabaseBenchmark {
+    @Param({ "100000", "2000000" })
+    public int entries;
+
+    @Param({ "true", "false" })
+    public boolean filtered;
+
+    private File file;
+    private SortedKeyFile keys;
+    private BloomFilter filter;
+    private long[] spam;
+    private long[] unknown;
+    private int next = 0;
+
+    @Setup
+    public void setup() throws IOException {
+        Random random = new Random(42);
+        long[] all = new long[entries];
+        for (int i = 0; i < entries; i++) {
+            all[i] = 79_000_000_000L + (long) (random.nextDouble() * 999_999_999L);
+        }
+        Arrays.sort(all);
+        int unique = 0;
+        for (long key : all) {
+            if (unique == 0 || key != all[unique - 1]) {
+                all[unique++] = key;
+            }
+        }
+
+        file = File.createTempFile("spam", ".db");
+        SortedKeyFile.write(file, all, unique);
+        keys = SortedKeyFile.open(file);
+        filter = new BloomFilter(keys.size(), BloomFilter.DEFAULT_BITS_PER_KEY);
+        keys.forEach(filter::add);
+
+        spam = new long[1024];
+        unknown = new long[1024];
+        for (int i = 0; i < 1024; i++) {
+            spam[i] = all[random.nextInt(unique)];
+            unknown[i] = 79_000_000_000L + (long) (random.nextDouble() * 999_999_999L);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Benchmark
+    public boolean containsSpam() {
+        next = (next + 1) & 1023;
+        return contains(spam[next]);
+    }
+
+    @Benchmark
+    public boolean containsUnknown() {
+        next = (next + 1) & 1023;
+        return contains(unknown[next]);
+    }
+
+    private boolean contains(long key) {
+        return (!filtered || filter.mightContain(key)) && keys.contains(key);
+    }
+}
@@ -0,0 +1,51 @@
+package ru.gwynerva.nuc.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import ru.gwynerva.nuc.TimeUtils;
+
+// Pause handling: the expiry check when the pause alarm fires or the state is checked again,
+// and the pause end shown by every UI, tile and notification update
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TimeBenchmark {
+    private long pauseUntil;
+    private long tomorrow;
+
+    @Setup
+    public void setup() {
+        long now = System.currentTimeMillis();
+        pauseUntil = now + 2 * 60 * 60 * 1000;
+        tomorrow = now + 24 * 60 * 60 * 1000;
+    }
+
+    @Benchmark
+    public boolean pauseExpiryCheck() {
+        return TimeUtils.isPauseExpired(pauseUntil, System.currentTimeMillis());
+    }
+
+    @Benchmark
+    public String formatToday() {
+        return TimeUtils.formatTimestamp(pauseUntil, "tomorrow");
+    }
+
+    @Benchmark
+    public String formatTomorrow() {
+        return TimeUtils.formatTimestamp(tomorrow, "tomorrow");
+    }
+}
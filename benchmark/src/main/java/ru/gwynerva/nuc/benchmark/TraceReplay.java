@@ -0,0 +1,350 @@
+package ru.gwynerva.nuc.benchmark;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+import ru.gwynerva.nuc.BloomFilter;
+import ru.gwynerva.nuc.BurstDetector;
+import ru.gwynerva.nuc.CallDescriptor;
+import ru.gwynerva.nuc.Clock;
+import ru.gwynerva.nuc.ContactNumberSet;
+import ru.gwynerva.nuc.LatencyHistogram;
+import ru.gwynerva.nuc.NumberPatternMatcher;
+import ru.gwynerva.nuc.PhoneNumbers;
+import ru.gwynerva.nuc.ProtectionState;
+import ru.gwynerva.nuc.ProtectionStateMachine;
+import ru.gwynerva.nuc.ScreeningChain;
+import ru.gwynerva.nuc.ScreeningEngine;
+import ru.gwynerva.nuc.ScreeningRule;
+import ru.gwynerva.nuc.ScreeningRules;
+import ru.gwynerva.nuc.SortedKeyFile;
+import ru.gwynerva.nuc.Storage;
+import ru.gwynerva.nuc.VerdictCache;
+
+// Replays a call trace through the screening engine the way InterceptCallService.screenCall() runs it,
+// and reports decisions per second, the latency of every decision, the heap high-water mark and what
+// every rule decided. The engine, the rules and all lookup structures are the core module's classes,
+// only the Android indexes that hold the data in the app are replaced by the structures themselves.
+//
+// Run with ./gradlew :benchmark:replay -Preplay.args="--calls=5000000 --contact-ratio=0.2", options:
+//   --trace=FILE          replay a recorded trace of time,number lines instead of a synthetic one
+//   --write-trace=FILE    write the synthetic trace to a file and exit
+//   --contacts-file=FILE  contact numbers, one per line, instead of the synthetic contacts
+//   --spam-db=FILE        spam database in the SortedKeyFile format instead of a synthetic one
+//   --allow=PATTERN, --block=PATTERN  number patterns, may be repeated, replace the default ones
+//   --region=RU --seed=42 --no-recall --no-cache
+// Synthetic trace: --calls --contacts --callers --zipf --contact-ratio --interval (mean seconds between
+// calls) --burst-chance (per call) --burst-size --burst-interval (seconds) --spam-ratio --spam-size.
+// Policy: --burst-threshold --burst-window (minutes) --recall-period (minutes) --cache-capacity.
+public final class TraceReplay {
+    // Calls decided per screenBatch()
+    private static final int BATCH_SIZE = 1024;
+
+    private static final String DEFAULT_ALLOW_PATTERN = "+7 800*";
+    private static final String DEFAULT_BLOCK_PATTERN = "+7 495 ???-??-??";
+
+    private final Map<String, List<String>> options;
+
+    private TraceReplay(Map<String, List<String>> options) {
+        this.options = options;
+    }
+
+    public static void main(String[] args) throws IOException {
+        Map<String, List<String>> options = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                throw new IllegalArgumentException("Options are --name=value, got: " + arg);
+            }
+            int equals = arg.indexOf('=');
+            String name = equals < 0 ? arg.substring(2) : arg.substring(2, equals);
+            String value = equals < 0 ? "" : arg.substring(equals + 1);
+            options.computeIfAbsent(name, key -> new ArrayList<>()).add(value);
+        }
+        new TraceReplay(options).run();
+    }
+
+    private void run() throws IOException {
+        Random random = new Random(getLong("seed", 42));
+        int region = PhoneNumbers.regionIndex(getString("region", "RU"));
+
+        CallTrace trace;
+        CallTrace.Synthetic synthetic = null;
+        if (options.containsKey("trace")) {
+            trace = new CallTrace.Recorded(new File(getString("trace", null)));
+        } else {
+            synthetic = new CallTrace.Synthetic(random.nextLong(),
+                    getLong("calls", 1_000_000),
+                    (int) getLong("contacts", 500),
+                    (int) getLong("callers", 100_000),
+                    getDouble("zipf", 1.0),
+                    getDouble("contact-ratio", 0.3),
+                    getLong("interval", 60) * 1000,
+                    getDouble("burst-chance", 0.0005),
+                    (int) getLong("burst-size", 50),
+                    getLong("burst-interval", 10) * 1000);
+            trace = synthetic;
+
+            if (options.containsKey("write-trace")) {
+                File file = new File(getString("write-trace", null));
+                trace.writeTo(file);
+                System.out.println("Trace written to " + file);
+                return;
+            }
+        }
+
+        // Screening data, what the app would have loaded
+        ContactNumberSet contacts = loadContacts(synthetic, region);
+        SortedKeyFile spamKeys = loadSpamDatabase(synthetic, random);
+        BloomFilter spamFilter = new BloomFilter(spamKeys.size(), BloomFilter.DEFAULT_BITS_PER_KEY);
+        spamKeys.forEach(spamFilter::add);
+        NumberPatternMatcher matcher = compilePatterns(region);
+
+        long burstWindow = getLong("burst-window", 10) * 60 * 1000;
+        BurstDetector burstDetector = new BurstDetector(burstWindow, 10);
+        VerdictCache cache = options.containsKey("no-cache") ? null : new VerdictCache((int) getLong("cache-capacity", 256));
+
+        // The chain of InterceptCallService, the spam rule asks the filter first like SpamDatabase.contains()
+        ScreeningChain chain = new ScreeningChain.Builder()
+                .add(new ScreeningRules.NotActiveRule())
+                .add(new ScreeningRules.NotIncomingRule())
+                .add(new ScreeningRules.EmptyNumberRule())
+                .add(new ScreeningRules.ContactsPermissionRule(contacts::contains))
+                .add(new ScreeningRules.ContactRule(number -> contacts.contains(number, region)))
+                .add(new ScreeningRules.PatternRule(() -> matcher, ScreeningRule.Verdict.ALLOW))
+                .add(new ScreeningRules.PatternRule(() -> matcher, ScreeningRule.Verdict.REJECT))
+                .add(new ScreeningRules.SpamRule(key -> spamFilter.mightContain(key) && spamKeys.contains(key)))
+                .add(new ScreeningRules.BurstRule(burstDetector, (int) getLong("burst-threshold", 5)))
+                .add(new ScreeningRules.RecallRule(null, 1024, getLong("recall-period", 5) * 60 * 1000,
+                        !options.containsKey("no-recall")))
+                .setDefault(ScreeningRule.Verdict.REJECT, "Unknown call number.")
+                .setCache(cache)
+                .build();
+        ProtectionStateMachine stateMachine = new ProtectionStateMachine(
+                new Storage.Memory(ProtectionState.ACTIVE, 0), Clock.SYSTEM);
+        ScreeningEngine engine = new ScreeningEngine(chain, stateMachine, Clock.SYSTEM);
+        engine.setRegion(region);
+
+        // What every rule decided, the last entry is the default verdict
+        long[] allowed = new long[chain.size() + 1];
+        long[] rejected = new long[chain.size() + 1];
+
+        List<MemoryPoolMXBean> heapPools = new ArrayList<>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                heapPools.add(pool);
+            }
+        }
+        System.gc();
+        long setupHeap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+        for (MemoryPoolMXBean pool : heapPools) {
+            pool.resetPeakUsage();
+        }
+
+        CallDescriptor[] batch = new CallDescriptor[BATCH_SIZE];
+        for (int i = 0; i < batch.length; i++) {
+            batch[i] = new CallDescriptor();
+        }
+        ScreeningRule.Verdict[] verdicts = new ScreeningRule.Verdict[BATCH_SIZE];
+        ScreeningRule[] decidedBy = new ScreeningRule[BATCH_SIZE];
+
+        long calls = 0;
+        long firstTime = 0;
+        long lastTime = 0;
+        long startTime = System.nanoTime();
+
+        try {
+            boolean more = true;
+            while (more) {
+                int count = 0;
+                while (count < BATCH_SIZE && (more = trace.next())) {
+                    batch[count++].set(trace.number, true, trace.time);
+                }
+                if (count == 0) {
+                    break;
+                }
+
+                engine.screenBatch(batch, count, verdicts, decidedBy);
+                for (int i = 0; i < count; i++) {
+                    int index = indexOf(chain, decidedBy[i]);
+                    if (verdicts[i] == ScreeningRule.Verdict.ALLOW) {
+                        allowed[index]++;
+                    } else {
+                        rejected[index]++;
+                    }
+                }
+
+                if (calls == 0) {
+                    firstTime = batch[0].time;
+                }
+                lastTime = batch[count - 1].time;
+                calls += count;
+            }
+        } finally {
+            trace.close();
+        }
+
+        // What screenCall() records as the rules stage, number key included
+        LatencyHistogram latency = engine.getTimings();
+
+        long elapsed = System.nanoTime() - startTime;
+        long peakHeap = 0;
+        for (MemoryPoolMXBean pool : heapPools) {
+            peakHeap += pool.getPeakUsage().getUsed();
+        }
+
+        PrintWriter writer = new PrintWriter(System.out, true);
+        writer.printf(Locale.ROOT, "Replayed %d calls over %.1f simulated days in %.2f s%n",
+                calls, (lastTime - firstTime) / 86_400_000.0, elapsed / 1e9);
+        writer.printf(Locale.ROOT, "  throughput   %,.0f calls/s with the trace, %,.0f decisions/s of screening alone%n",
+                calls * 1e9 / Math.max(elapsed, 1), 1e9 / Math.max(latency.getMean(), 1));
+        writer.printf(Locale.ROOT, "  heap         %.1f MB after setup, %.1f MB high-water mark while replaying%n",
+                setupHeap / 1048576.0, peakHeap / 1048576.0);
+        writer.printf(Locale.ROOT, "  data         %d contact numbers, %d spam numbers (%d KB filter), burst detector %d KB%n",
+                contacts.size(), spamKeys.size(), spamFilter.sizeInBytes() / 1024, burstDetector.getMemoryBytes() / 1024);
+        if (cache != null) {
+            writer.printf(Locale.ROOT, "  cache        %d hits, %d misses, %.1f%% hit rate%n",
+                    cache.getHits(), cache.getMisses(),
+                    100.0 * cache.getHits() / Math.max(cache.getHits() + cache.getMisses() + cache.getStaleMisses(), 1));
+        }
+
+        writer.println("Latency:");
+        latency.dump(writer, "  ");
+
+        writer.println("Rules:");
+        writer.printf(Locale.ROOT, "  %-19s %-9s %12s %12s %12s%n", "rule", "phase", "evaluated", "allowed", "rejected");
+        for (int i = 0; i < chain.size(); i++) {
+            ScreeningRule rule = chain.getRule(i);
+            writer.printf(Locale.ROOT, "  %-19s %-9s %12d %12d %12d%n",
+                    rule.name(), rule.phase(), chain.getEvaluations(i), allowed[i], rejected[i]);
+        }
+        writer.printf(Locale.ROOT, "  %-19s %-9s %12s %12d %12d%n",
+                "default", "", "", allowed[chain.size()], rejected[chain.size()]);
+
+        writer.println("Rule timings:");
+        for (int i = 0; i < chain.size(); i++) {
+            chain.getTimings(i).dump(writer, "  ");
+        }
+    }
+
+    private static int indexOf(ScreeningChain chain, ScreeningRule rule) {
+        for (int i = 0; i < chain.size(); i++) {
+            if (chain.getRule(i) == rule) {
+                return i;
+            }
+        }
+        return chain.size();
+    }
+
+    //
+    // Screening data
+    //
+
+    private ContactNumberSet loadContacts(CallTrace.Synthetic synthetic, int region) throws IOException {
+        ContactNumberSet.Builder builder = new ContactNumberSet.Builder();
+        if (options.containsKey("contacts-file")) {
+            try (BufferedReader reader = new BufferedReader(new FileReader(getString("contacts-file", null)))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (!line.trim().isEmpty()) {
+                        builder.add(line.trim());
+                    }
+                }
+            }
+        } else if (synthetic != null) {
+            // Saved in the contacts the way people type them
+            for (long key : synthetic.getContactKeys()) {
+                builder.add("8" + Long.toString(key).substring(1));
+            }
+        }
+        return builder.build();
+    }
+
+    // Unknown callers of the synthetic trace are listed with the spam ratio, padded with numbers that never call
+    private SortedKeyFile loadSpamDatabase(CallTrace.Synthetic synthetic, Random random) throws IOException {
+        if (options.containsKey("spam-db")) {
+            return SortedKeyFile.open(new File(getString("spam-db", null)));
+        }
+
+        int size = (int) getLong("spam-size", 100_000);
+        double ratio = getDouble("spam-ratio", 0.05);
+        long[] keys = new long[size];
+        int count = 0;
+        if (synthetic != null) {
+            for (long key : synthetic.getUnknownKeys()) {
+                if (count < size && random.nextDouble() < ratio) {
+                    keys[count++] = key;
+                }
+            }
+        }
+        while (count < size) {
+            keys[count++] = 79_000_000_000L + (long) (random.nextDouble() * 999_999_999L);
+        }
+
+        Arrays.sort(keys);
+        int unique = 0;
+        for (long key : keys) {
+            if (unique == 0 || key != keys[unique - 1]) {
+                keys[unique++] = key;
+            }
+        }
+
+        File file = File.createTempFile("spam", ".db");
+        file.deleteOnExit();
+        SortedKeyFile.write(file, keys, unique);
+        return SortedKeyFile.open(file);
+    }
+
+    private NumberPatternMatcher compilePatterns(int region) {
+        List<String> allow = options.get("allow");
+        List<String> block = options.get("block");
+        NumberPatternMatcher.Compiler compiler = new NumberPatternMatcher.Compiler(region);
+        if (allow == null && block == null) {
+            compiler.add(DEFAULT_ALLOW_PATTERN, NumberPatternMatcher.ALLOW);
+            compiler.add(DEFAULT_BLOCK_PATTERN, NumberPatternMatcher.BLOCK);
+        } else {
+            if (allow != null) {
+                for (String pattern : allow) {
+                    compiler.add(pattern, NumberPatternMatcher.ALLOW);
+                }
+            }
+            if (block != null) {
+                for (String pattern : block) {
+                    compiler.add(pattern, NumberPatternMatcher.BLOCK);
+                }
+            }
+        }
+        return compiler.compile();
+    }
+
+    //
+    // Options
+    //
+
+    private String getString(String name, String defaultValue) {
+        List<String> values = options.get(name);
+        return values != null ? values.get(values.size() - 1) : defaultValue;
+    }
+
+    private long getLong(String name, long defaultValue) {
+        String value = getString(name, null);
+        return value != null ? Long.parseLong(value) : defaultValue;
+    }
+
+    private double getDouble(String name, double defaultValue) {
+        String value = getString(name, null);
+        return value != null ? Double.parseDouble(value) : defaultValue;
+    }
+}
@@ -0,0 +1,112 @@
+plugins {
+    `java-library`
+}
+
+java {
+    sourceCompatibility = JavaVersion.VERSION_11
+    targetCompatibility = JavaVersion.VERSION_11
+}
+
+// Dialing rules for PhoneNumbers.e164Key(), compiled into Java arrays so nothing is parsed at runtime
+val generateRegionTables = tasks.register<GenerateRegionTables>("generateRegionTables") {
+    regionsFile.set(layout.projectDirectory.file("src/main/regions/dialing_prefixes.txt"))
+    outputDir.set(layout.buildDirectory.dir("generated/source/regionTables"))
+}
+
+sourceSets {
+    main {
+        java {
+            srcDir(generateRegionTables)
+        }
+    }
+}
+
+abstract class GenerateRegionTables : DefaultTask() {
+    @get:InputFile
+    @get:PathSensitive(PathSensitivity.RELATIVE)
+    abstract val regionsFile: RegularFileProperty
+
+    @get:OutputDirectory
+    abstract val outputDir: DirectoryProperty
+
+    private class Region(
+        val code: String,
+        val countryCode: Int,
+        val trunkPrefix: String,
+        val internationalPrefix: String,
+        val minNationalLength: Int,
+        val maxNationalLength: Int,
+    )
+
+    @TaskAction
+    fun generate() {
+        val source = regionsFile.get().asFile
+        val regions = source.readLines()
+            .mapIndexedNotNull { index, line ->
+                val fields = line.substringBefore('#').trim().split(Regex("\\s+")).filter { it.isNotEmpty() }
+                if (fields.isEmpty()) null else parse(fields, "${source.name}:${index + 1}")
+            }
+            .sortedBy { it.code }
+
+        regions.zipWithNext().firstOrNull { (a, b) -> a.code == b.code }?.let { (a, _) ->
+            throw GradleException("Region ${a.code} is listed twice in ${source.name}")
+        }
+
+        fun ints(values: (Region) -> Int) = regions.joinToString(", ") { values(it).toString() }
+        fun prefixes(values: (Region) -> String) = regions.joinToString(", ") { values(it).ifEmpty { "0" }.toInt().toString() }
+        fun lengths(values: (Region) -> String) = regions.joinToString(", ") { values(it).length.toString() }
+
+        val output = outputDir.get().asFile.resolve("ru/gwynerva/nuc/RegionTables.java")
+        output.parentFile.mkdirs()
+        output.writeText(
+            """
+            |package ru.gwynerva.nuc;
+            |
+            |import java.util.Arrays;
+            |
+            |// Generated from ${source.name} by the generateRegionTables task, do not edit.
+            |// Prefixes are stored as the value of their digits next to the digit count, 0 digits for none.
+            |final class RegionTables {
+            |    private RegionTables() {}
+            |
+            |    // Sorted
+            |    static final String[] REGIONS = { ${regions.joinToString(", ") { "\"${it.code}\"" }} };
+            |    static final int[] COUNTRY_CODES = { ${ints { it.countryCode }} };
+            |    static final int[] TRUNK_PREFIXES = { ${prefixes { it.trunkPrefix }} };
+            |    static final byte[] TRUNK_PREFIX_LENGTHS = { ${lengths { it.trunkPrefix }} };
+            |    static final int[] INTERNATIONAL_PREFIXES = { ${prefixes { it.internationalPrefix }} };
+            |    static final byte[] INTERNATIONAL_PREFIX_LENGTHS = { ${lengths { it.internationalPrefix }} };
+            |    static final byte[] MIN_NATIONAL_LENGTHS = { ${ints { it.minNationalLength }} };
+            |    static final byte[] MAX_NATIONAL_LENGTHS = { ${ints { it.maxNationalLength }} };
+            |
+            |    // Index of the upper case ISO 3166 region code, -1 if unknown
+            |    static int indexOf(String region) {
+            |        int index = region == null ? -1 : Arrays.binarySearch(REGIONS, region);
+            |        return Math.max(index, -1);
+            |    }
+            |}
+            |""".trimMargin()
+        )
+    }
+
+    private fun parse(fields: List<String>, location: String): Region {
+        fun fail(message: String): Nothing = throw GradleException("$location: $message")
+        fun prefix(value: String) = when {
+            value == "-" -> ""
+            value.length in 1..4 && value.all { it.isDigit() } -> value
+            else -> fail("bad prefix '$value'")
+        }
+
+        if (fields.size != 5) fail("expected 5 fields, got ${fields.size}")
+        val (code, country, trunk, international, national) = fields
+        if (!code.matches(Regex("[A-Z]{2}"))) fail("bad region '$code'")
+        val countryCode = country.toIntOrNull()?.takeIf { it in 1..999 } ?: fail("bad country code '$country'")
+        val lengths = national.split('-').map { it.toIntOrNull() ?: fail("bad national length '$national'") }
+        val minLength = lengths.first()
+        val maxLength = lengths.last()
+        if (lengths.size > 2 || minLength < 1 || minLength > maxLength || country.length + maxLength > 15) {
+            fail("bad national length '$national'")
+        }
+        return Region(code, countryCode, prefix(trunk), prefix(international), minLength, maxLength)
+    }
+}
@@ -0,0 +1,71 @@
+package ru.gwynerva.nuc;
+
+// Bloom filter over long keys that answers "definitely not present" without touching the keys themselves.
+//
+// The bits are split into blocks of one 64 byte cache line, and all probes of a key fall into the block
+// picked by its hash. A lookup therefore costs a single memory access, for a slightly higher false
+// positive rate than an unblocked filter: about 1% at 10 bits per key.
+public final class BloomFilter {
+    public static final int DEFAULT_BITS_PER_KEY = 10;
+
+    // Longs per block, 8 * 64 = 512 bits
+    private static final int BLOCK_WORDS = 8;
+    private static final int PROBES = 7;
+
+    public static final BloomFilter EMPTY = new BloomFilter(0, DEFAULT_BITS_PER_KEY);
+
+    private final long[] words;
+    private final int blockCount;
+
+    public BloomFilter(int expectedKeys, int bitsPerKey) {
+        long bits = Math.max((long) expectedKeys * bitsPerKey, 1);
+        blockCount = (int) Math.min((bits + BLOCK_WORDS * 64 - 1) / (BLOCK_WORDS * 64), Integer.MAX_VALUE / BLOCK_WORDS);
+        words = new long[blockCount * BLOCK_WORDS];
+    }
+
+    public void add(long key) {
+        long hash = mix(key);
+        int block = blockOf(hash);
+        long bits = probeBits(hash);
+        for (int i = 0; i < PROBES; i++) {
+            int bit = (int) (bits & 511);
+            words[block + (bit >>> 6)] |= 1L << bit;
+            bits = bits >>> 9 | bits << 55;
+        }
+    }
+
+    public boolean mightContain(long key) {
+        long hash = mix(key);
+        int block = blockOf(hash);
+        long bits = probeBits(hash);
+        for (int i = 0; i < PROBES; i++) {
+            int bit = (int) (bits & 511);
+            if ((words[block + (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+            bits = bits >>> 9 | bits << 55;
+        }
+        return true;
+    }
+
+    public long sizeInBytes() {
+        return (long) words.length * 8;
+    }
+
+    // Upper half of the hash picks the block
+    private int blockOf(long hash) {
+        return (int) (((hash >>> 32) * blockCount) >>> 32) * BLOCK_WORDS;
+    }
+
+    // 9 bits per probe, multiplied so that keys in the same block still get unrelated bits
+    private static long probeBits(long hash) {
+        return hash * 0x9e3779b97f4a7c15L;
+    }
+
+    // SplitMix64 finalizer, numbers that differ in one digit end up in unrelated blocks
+    private static long mix(long key) {
+        key = (key ^ (key >>> 30)) * 0xbf58476d1ce4e5b9L;
+        key = (key ^ (key >>> 27)) * 0x94d049bb133111ebL;
+        return key ^ (key >>> 31);
+    }
+}
@@ -0,0 +1,102 @@
+package ru.gwynerva.nuc;
+
+import java.util.Arrays;
+
+// Counts recent calls per number range in fixed memory, no matter how many different numbers call.
+//
+// A range is all numbers that differ only in the last RANGE_DIGITS digits of their E.164 key, which is how
+// robocall campaigns pick their caller ids. Counts are kept in a count-min sketch per time slot, and the
+// slots form a ring covering the window. A count is the sum over the slots still in the window, taken
+// as the minimum over the sketch rows, so it can only be overestimated by hash collisions and never
+// underestimated. Slots that fall out of the window are cleared when the ring comes back to them.
+//
+// With 10 slots the detector takes about 80 KB. A range that has not called is still counted as a
+// burst of 6 less than once in 10000 lookups after a thousand unknown calls within the window.
+//
+// Not thread safe, used on the screening thread only.
+public final class BurstDetector {
+    public static final int RANGE_DIGITS = 4;
+    private static final long RANGE = 10_000;
+
+    private static final int DEPTH = 4;
+    // Counters per row, a power of two
+    private static final int WIDTH = 1024;
+
+    private final int slotCount;
+    private final long slotLength;
+    // slotCount sketches of DEPTH * WIDTH counters each, 16 bit unsigned and saturating
+    private final char[] counters;
+    // Slot number each ring position holds, time / slotLength
+    private final long[] slotNumbers;
+
+    public BurstDetector(long window, int slotCount) {
+        this.slotCount = slotCount;
+        this.slotLength = Math.max(window / slotCount, 1);
+        this.counters = new char[slotCount * DEPTH * WIDTH];
+        this.slotNumbers = new long[slotCount];
+        Arrays.fill(slotNumbers, -1);
+    }
+
+    // Range of an E.164 key, 0 for keys that are not one
+    public static long rangeOf(long numberKey) {
+        return numberKey > 0 ? numberKey / RANGE : 0;
+    }
+
+    // Counts a call from the range and returns the calls from it in the window, this one included
+    public int record(long range, long time) {
+        long slotNumber = time / slotLength;
+        int slot = (int) (slotNumber % slotCount);
+        if (slotNumbers[slot] != slotNumber) {
+            // Left over from an earlier turn of the ring
+            Arrays.fill(counters, slot * DEPTH * WIDTH, (slot + 1) * DEPTH * WIDTH, (char) 0);
+            slotNumbers[slot] = slotNumber;
+        }
+
+        long hash = mix(range);
+        int base = slot * DEPTH * WIDTH;
+        for (int row = 0; row < DEPTH; row++) {
+            int index = base + row * WIDTH + column(hash, row);
+            if (counters[index] < Character.MAX_VALUE) {
+                counters[index]++;
+            }
+        }
+        return count(range, time);
+    }
+
+    // Calls from the range in the window that ends at the given time
+    public int count(long range, long time) {
+        long slotNumber = time / slotLength;
+        long hash = mix(range);
+
+        int min = Integer.MAX_VALUE;
+        for (int row = 0; row < DEPTH; row++) {
+            int column = column(hash, row);
+            int sum = 0;
+            for (int slot = 0; slot < slotCount; slot++) {
+                long age = slotNumber - slotNumbers[slot];
+                // Slots from the future are left by a clock that went back, they do not count
+                if (age >= 0 && age < slotCount) {
+                    sum += counters[slot * DEPTH * WIDTH + row * WIDTH + column];
+                }
+            }
+            min = Math.min(min, sum);
+        }
+        return min;
+    }
+
+    public int getMemoryBytes() {
+        return counters.length * 2 + slotNumbers.length * 8;
+    }
+
+    // Every row takes its own bits of the hash
+    private static int column(long hash, int row) {
+        return (int) (hash >>> (row * 16)) & (WIDTH - 1);
+    }
+
+    // SplitMix64 finalizer, neighbouring ranges end up in unrelated columns
+    private static long mix(long key) {
+        key = (key ^ (key >>> 30)) * 0xbf58476d1ce4e5b9L;
+        key = (key ^ (key >>> 27)) * 0x94d049bb133111ebL;
+        return key ^ (key >>> 31);
+    }
+}
@@ -0,0 +1,40 @@
+package ru.gwynerva.nuc;
+
+import java.util.Locale;
+
+// Text from a format string that is only formatted again when its arguments change.
+// Meant for views that are updated far more often than the values they show change.
+// An instance is used with one kind of arguments only, and is not thread safe.
+public final class CachedText {
+    private final String format;
+    private final Locale locale;
+
+    // Null until the first format
+    private String text;
+    private long firstNumber;
+    private long secondNumber;
+    private String string;
+
+    // Format as returned by Context.getString(id) without arguments
+    public CachedText(String format, Locale locale) {
+        this.format = format;
+        this.locale = locale;
+    }
+
+    public String format(long first, long second) {
+        if (text == null || first != firstNumber || second != secondNumber) {
+            firstNumber = first;
+            secondNumber = second;
+            text = String.format(locale, format, first, second);
+        }
+        return text;
+    }
+
+    public String format(String argument) {
+        if (text == null || !argument.equals(string)) {
+            string = argument;
+            text = String.format(locale, format, argument);
+        }
+        return text;
+    }
+}
@@ -0,0 +1,17 @@
+package ru.gwynerva.nuc;
+
+// Input of ScreeningEngine.screenBatch(): one call as the system reports it.
+// Descriptors are plain holders, a batch can be filled again for the next one.
+public final class CallDescriptor {
+    public String number;
+    public boolean incoming;
+    // Epoch milliseconds the call arrived at
+    public long time;
+
+    public CallDescriptor set(String number, boolean incoming, long time) {
+        this.number = number;
+        this.incoming = incoming;
+        this.time = time;
+        return this;
+    }
+}
@@ -0,0 +1,8 @@
+package ru.gwynerva.nuc;
+
+// Wall clock time in milliseconds, replaced by trace times when calls are replayed
+public interface Clock {
+    Clock SYSTEM = System::currentTimeMillis;
+
+    long currentTimeMillis();
+}
@@ -0,0 +1,280 @@
+package ru.gwynerva.nuc;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+// Immutable set of contact numbers that answers PhoneLookup-style loose matches without a query.
+//
+// Every number is stored as a single long: its digits reversed (last digit first), written in
+// base 11 (digit + 1, so that 0 means "no digit") and left aligned in MAX_DIGITS positions.
+// All numbers that end with the same digits therefore form one contiguous range of keys, and a
+// loose match turns into a few binary searches over a sorted primitive array.
+//
+// The keys can also be saved to and used straight from a SortedKeyFile, so a set is available right
+// after boot without asking the contacts provider.
+public final class ContactNumberSet {
+    // Same minimum as the loose comparison in PhoneNumberUtils
+    public static final int MIN_MATCH = 7;
+    // Longest E.164 number
+    public static final int MAX_DIGITS = 15;
+
+    // WEIGHTS[i] = 11^(MAX_DIGITS - i), the reversed digit at position i is multiplied by WEIGHTS[i + 1]
+    private static final long[] WEIGHTS = new long[MAX_DIGITS + 1];
+
+    static {
+        WEIGHTS[MAX_DIGITS] = 1;
+        for (int i = MAX_DIGITS - 1; i >= 0; i--) {
+            WEIGHTS[i] = WEIGHTS[i + 1] * 11;
+        }
+    }
+
+    public static final ContactNumberSet EMPTY = new ContactNumberSet(new long[0]);
+
+    // Exactly one of them is set
+    private final long[] keys;
+    private final SortedKeyFile file;
+
+    private ContactNumberSet(long[] sortedKeys) {
+        this.keys = sortedKeys;
+        this.file = null;
+    }
+
+    private ContactNumberSet(SortedKeyFile file) {
+        this.keys = null;
+        this.file = file;
+    }
+
+    // Uses a snapshot written by writeTo() without loading it, must not be called on the main thread
+    public static ContactNumberSet open(File snapshot) throws IOException {
+        return new ContactNumberSet(SortedKeyFile.open(snapshot));
+    }
+
+    // Must not be called on the main thread
+    public void writeTo(File snapshot) throws IOException {
+        long[] sorted = getKeys();
+        SortedKeyFile.write(snapshot, sorted, sorted.length);
+    }
+
+    public int size() {
+        return keys != null ? keys.length : file.size();
+    }
+
+    // Same numbers, no matter where the keys are kept
+    public boolean hasSameNumbers(ContactNumberSet other) {
+        return Arrays.equals(getKeys(), other.getKeys());
+    }
+
+    private long[] getKeys() {
+        return keys != null ? keys : file.toArray();
+    }
+
+    // Same as contains(number, -1)
+    public boolean contains(CharSequence number) {
+        return contains(number, -1);
+    }
+
+    // Check if the number matches any contact number the way PhoneLookup does it: short numbers must
+    // match exactly, longer ones must share at least MIN_MATCH trailing digits with one number being a
+    // tail of the other. Numbers that differ in front only match when one of them is dialed with the
+    // trunk prefix of the region and the other with its country code, e.g. 8 912 345-67-89 and
+    // +7 912 345-67-89 in Russia. If the region is unknown (-1), the prefixes of every region are tried.
+    public boolean contains(CharSequence number, int region) {
+        int end = PhoneNumbers.dialableEnd(number);
+        int totalDigits = PhoneNumbers.countDigits(number, end);
+        int digits = Math.min(totalDigits, MAX_DIGITS);
+        if (digits == 0) {
+            return false;
+        }
+
+        long key = 0;
+        // Decimal value of the same digits, leading zeros are told apart by the digit count
+        long value = 0;
+        int matched = 0;
+
+        for (int i = end - 1; i >= 0 && matched < digits; i--) {
+            char c = number.charAt(i);
+            if (!PhoneNumbers.isDigit(c)) {
+                continue;
+            }
+
+            value += (c - '0') * PhoneNumbers.POWERS_OF_TEN[matched];
+            key += (c - '0' + 1) * WEIGHTS[++matched];
+
+            // A shorter contact number that is a tail of this one
+            if (digits >= MIN_MATCH && matched >= MIN_MATCH && matched < digits && containsKey(key)) {
+                return true;
+            }
+        }
+
+        if (digits < MIN_MATCH) {
+            return containsKey(key);
+        }
+
+        // This number itself or a longer contact number ending with it
+        if (containsRange(key, key + WEIGHTS[digits] - 1)) {
+            return true;
+        }
+
+        if (totalDigits > MAX_DIGITS) {
+            return false;
+        }
+        if (region >= 0) {
+            return containsOtherForm(value, digits, region);
+        }
+        for (int i = 0; i < RegionTables.REGIONS.length; i++) {
+            if (containsOtherForm(value, digits, i)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // The national number of the region dialed with the trunk prefix against the same number with the
+    // country code, with or without the international prefix before it, and the other way around
+    private boolean containsOtherForm(long value, int digits, int region) {
+        int trunkLength = RegionTables.TRUNK_PREFIX_LENGTHS[region];
+        if (trunkLength == 0) {
+            // National numbers are a tail of the international ones
+            return false;
+        }
+        long trunk = RegionTables.TRUNK_PREFIXES[region];
+        long countryCode = RegionTables.COUNTRY_CODES[region];
+        int countryLength = PhoneNumbers.countDecimalDigits(RegionTables.COUNTRY_CODES[region]);
+        int internationalLength = RegionTables.INTERNATIONAL_PREFIX_LENGTHS[region] + countryLength;
+        long international = RegionTables.INTERNATIONAL_PREFIXES[region] * PhoneNumbers.POWERS_OF_TEN[countryLength]
+                + countryCode;
+
+        if (hasNationalNumber(value, digits, trunk, trunkLength, region)) {
+            int nationalLength = digits - trunkLength;
+            long national = value % PhoneNumbers.POWERS_OF_TEN[nationalLength];
+            return containsKey(keyOf(countryCode, countryLength, national, nationalLength))
+                    || (internationalLength > countryLength
+                        && containsKey(keyOf(international, internationalLength, national, nationalLength)));
+        }
+
+        int prefixLength;
+        if (hasNationalNumber(value, digits, countryCode, countryLength, region)) {
+            prefixLength = countryLength;
+        } else if (internationalLength > countryLength
+                && hasNationalNumber(value, digits, international, internationalLength, region)) {
+            prefixLength = internationalLength;
+        } else {
+            return false;
+        }
+        int nationalLength = digits - prefixLength;
+        return containsKey(keyOf(trunk, trunkLength, value % PhoneNumbers.POWERS_OF_TEN[nationalLength], nationalLength));
+    }
+
+    // The number starts with the prefix and the rest has the length of a national number of the region
+    private static boolean hasNationalNumber(long value, int digits, long prefix, int prefixLength, int region) {
+        int nationalLength = digits - prefixLength;
+        return nationalLength >= RegionTables.MIN_NATIONAL_LENGTHS[region]
+                && nationalLength <= RegionTables.MAX_NATIONAL_LENGTHS[region]
+                && value / PhoneNumbers.POWERS_OF_TEN[nationalLength] == prefix;
+    }
+
+    // Key of the prefix digits followed by the national digits, 0 if they do not fit
+    private static long keyOf(long prefix, int prefixLength, long national, int nationalLength) {
+        if (prefixLength + nationalLength > MAX_DIGITS) {
+            return 0;
+        }
+
+        long key = 0;
+        int position = 0;
+        for (int i = 0; i < nationalLength; i++, national /= 10) {
+            key += (national % 10 + 1) * WEIGHTS[++position];
+        }
+        for (int i = 0; i < prefixLength; i++, prefix /= 10) {
+            key += (prefix % 10 + 1) * WEIGHTS[++position];
+        }
+        return key;
+    }
+
+    private boolean containsKey(long key) {
+        return keys != null ? Arrays.binarySearch(keys, key) >= 0 : file.contains(key);
+    }
+
+    private boolean containsRange(long from, long to) {
+        if (keys == null) {
+            long ceiling = file.ceiling(from);
+            return ceiling >= 0 && ceiling <= to;
+        }
+
+        int index = Arrays.binarySearch(keys, from);
+        if (index >= 0) {
+            return true;
+        }
+        int insertion = -index - 1;
+        return insertion < keys.length && keys[insertion] <= to;
+    }
+
+    // Keys must be sorted, repeats are dropped. The array is kept if it has none, so it must not change later.
+    static ContactNumberSet fromSortedKeys(long[] sorted) {
+        // The same number is often stored both raw and normalized, or by several contacts
+        int unique = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            if (i == 0 || sorted[i] != sorted[i - 1]) {
+                unique++;
+            }
+        }
+        if (unique == 0) {
+            return EMPTY;
+        }
+        if (unique == sorted.length) {
+            return new ContactNumberSet(sorted);
+        }
+
+        long[] keys = new long[unique];
+        keys[0] = sorted[0];
+        for (int i = 1, j = 1; i < sorted.length; i++) {
+            if (sorted[i] != sorted[i - 1]) {
+                keys[j++] = sorted[i];
+            }
+        }
+        return new ContactNumberSet(keys);
+    }
+
+    // Encode the last MAX_DIGITS digits of the number, 0 if there are none
+    static long encode(CharSequence number) {
+        long key = 0;
+        int matched = 0;
+        for (int i = PhoneNumbers.dialableEnd(number) - 1; i >= 0 && matched < MAX_DIGITS; i--) {
+            char c = number.charAt(i);
+            if (PhoneNumbers.isDigit(c)) {
+                key += (c - '0' + 1) * WEIGHTS[++matched];
+            }
+        }
+        return key;
+    }
+
+    public static class Builder {
+        private long[] keys = new long[256];
+        private int size = 0;
+
+        public Builder add(CharSequence number) {
+            if (number == null) {
+                return this;
+            }
+
+            long key = encode(number);
+            if (key != 0) {
+                if (size == keys.length) {
+                    keys = Arrays.copyOf(keys, size * 2);
+                }
+                keys[size++] = key;
+            }
+            return this;
+        }
+
+        public ContactNumberSet build() {
+            if (size == 0) {
+                return EMPTY;
+            }
+
+            long[] sorted = Arrays.copyOf(keys, size);
+            Arrays.sort(sorted);
+            return fromSortedKeys(sorted);
+        }
+    }
+}
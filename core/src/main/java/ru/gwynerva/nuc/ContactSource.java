@@ -0,0 +1,15 @@
+package ru.gwynerva.nuc;
+
+// Phone numbers of the user's contacts, as seen by the screening rules.
+//
+// Called on the screening thread for every call that is not decided before the contacts are checked,
+// contains() should be a lookup in memory. It may throw when the numbers have to be read from
+// elsewhere and that fails, the call is then allowed.
+public interface ContactSource {
+    boolean contains(String number);
+
+    // False if contacts cannot be read, nobody is rejected then since known callers cannot be told apart
+    default boolean isAvailable() {
+        return true;
+    }
+}
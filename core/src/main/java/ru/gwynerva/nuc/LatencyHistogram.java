@@ -0,0 +1,112 @@
+package ru.gwynerva.nuc;
+
+import java.io.PrintWriter;
+import java.util.Locale;
+
+// Fixed size log-linear histogram of durations in nanoseconds.
+//
+// Every power of two is split into SUB_BUCKETS linear buckets, so a recorded value is off by less than
+// 1 / SUB_BUCKETS (12.5%) while the whole range from 1 ns to about 18 minutes fits into a few hundred longs.
+// Recording is a couple of shifts and an array increment and never allocates.
+//
+// Meant for a single writer thread, readers may see a slightly stale or torn snapshot.
+public final class LatencyHistogram {
+    private static final int SUB_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int MAX_EXPONENT = 40;
+    private static final int BUCKETS = (MAX_EXPONENT - SUB_BITS + 2) * SUB_BUCKETS;
+
+    private final String name;
+    private final long[] counts = new long[BUCKETS];
+    private long count = 0;
+    private long sum = 0;
+    private long max = 0;
+
+    public LatencyHistogram(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        counts[bucketOf(nanos)]++;
+        count++;
+        sum += nanos;
+        if (nanos > max) {
+            max = nanos;
+        }
+    }
+
+    private static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKETS - 1;
+        }
+        int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    // Largest value that falls into the bucket
+    private static long upperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BITS - 1;
+        long sub = bucket % SUB_BUCKETS;
+        return ((SUB_BUCKETS + sub + 1) << (exponent - SUB_BITS)) - 1;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    public long getMean() {
+        return count == 0 ? 0 : sum / count;
+    }
+
+    // Value below which the given fraction of recorded values falls, e.g. 0.99 for p99
+    public long getPercentile(double fraction) {
+        long total = count;
+        if (total == 0) {
+            return 0;
+        }
+
+        long rank = (long) Math.ceil(fraction * total);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(upperBound(i), max);
+            }
+        }
+        return max;
+    }
+
+    public void dump(PrintWriter writer, String prefix) {
+        writer.println(String.format(Locale.US, "%s%-20s count=%d p50=%s p99=%s max=%s mean=%s",
+                prefix, name, count,
+                formatNanos(getPercentile(0.5)), formatNanos(getPercentile(0.99)),
+                formatNanos(max), formatNanos(getMean())));
+    }
+
+    public static String formatNanos(long nanos) {
+        if (nanos < 10_000) {
+            return nanos + "ns";
+        } else if (nanos < 10_000_000) {
+            return String.format(Locale.US, "%.1fus", nanos / 1e3);
+        }
+        return String.format(Locale.US, "%.1fms", nanos / 1e6);
+    }
+}
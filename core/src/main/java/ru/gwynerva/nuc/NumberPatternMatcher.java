@@ -0,0 +1,391 @@
+package ru.gwynerva.nuc;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Allow and block lists of number patterns compiled into a single digit automaton.
+//
+// Pattern syntax: digits, '?' for any single digit and an optional trailing '*' for any number of digits.
+// Everything else ('+', spaces, dashes, brackets) is ignored, so "+7 800*" and "7800*" are the same pattern.
+// Matching walks the automaton once per digit, no matter how many patterns were compiled.
+// Numbers with an E.164 key are matched by its digits, so "+7 800*" also matches "8 800 ..." dialed in Russia.
+// Keys are matched against the patterns brought to E.164 form with the dialing rules of the Compiler's region,
+// so "8 800*" and "800*" written in Russia match "+7 800 ..." as well.
+// When several patterns match, the longest one wins, and allow wins over block on a tie.
+public final class NumberPatternMatcher {
+    public static final byte NO_MATCH = 0;
+    public static final byte ALLOW = 1;
+    public static final byte BLOCK = 2;
+
+    // Protects against pathological wildcard combinations
+    private static final int MAX_STATES = 1 << 18;
+
+    private static final int WILDCARD = 10;
+
+    public static final NumberPatternMatcher EMPTY = new NumberPatternMatcher(
+            new int[]{ -1, -1, -1, -1, -1, -1, -1, -1, -1, -1 }, new byte[1], new byte[1], 0, null);
+
+    // transitions[state * 10 + digit] is the next state or -1
+    private final int[] transitions;
+    // Verdict of a pattern that ends exactly in this state
+    private final byte[] exactVerdicts;
+    // Verdict of a '*' pattern whose fixed part ends in this state
+    private final byte[] prefixVerdicts;
+    private final int patternCount;
+    // Automaton of the patterns in E.164 form for match(long), this one if they are the same
+    private final NumberPatternMatcher keyPatterns;
+
+    private NumberPatternMatcher(int[] transitions, byte[] exactVerdicts, byte[] prefixVerdicts, int patternCount,
+                                 NumberPatternMatcher keyPatterns) {
+        this.transitions = transitions;
+        this.exactVerdicts = exactVerdicts;
+        this.prefixVerdicts = prefixVerdicts;
+        this.patternCount = patternCount;
+        this.keyPatterns = keyPatterns != null ? keyPatterns : this;
+    }
+
+    public int getPatternCount() {
+        return patternCount;
+    }
+
+    public int getStateCount() {
+        return exactVerdicts.length + (keyPatterns != this ? keyPatterns.getStateCount() : 0);
+    }
+
+    // Returns ALLOW, BLOCK or NO_MATCH for the digits of the number
+    public byte match(CharSequence number) {
+        int end = PhoneNumbers.dialableEnd(number);
+        int state = 0;
+        byte best = prefixVerdicts[0];
+
+        for (int i = 0; i < end; i++) {
+            char c = number.charAt(i);
+            if (!PhoneNumbers.isDigit(c)) {
+                continue;
+            }
+
+            state = transitions[state * 10 + (c - '0')];
+            if (state < 0) {
+                return best;
+            }
+            if (prefixVerdicts[state] != NO_MATCH) {
+                best = prefixVerdicts[state];
+            }
+        }
+
+        if (exactVerdicts[state] != NO_MATCH) {
+            return combine(exactVerdicts[state], prefixVerdicts[state]);
+        }
+        return best;
+    }
+
+    // Returns ALLOW, BLOCK or NO_MATCH for the digits of a positive PhoneNumbers.e164Key(),
+    // against the patterns in E.164 form
+    public byte match(long e164Key) {
+        return keyPatterns.matchKey(e164Key);
+    }
+
+    private byte matchKey(long e164Key) {
+        long divisor = 1;
+        while (divisor <= e164Key / 10) {
+            divisor *= 10;
+        }
+
+        int state = 0;
+        byte best = prefixVerdicts[0];
+        for (; divisor > 0; divisor /= 10) {
+            state = transitions[state * 10 + (int) (e164Key / divisor % 10)];
+            if (state < 0) {
+                return best;
+            }
+            if (prefixVerdicts[state] != NO_MATCH) {
+                best = prefixVerdicts[state];
+            }
+        }
+
+        if (exactVerdicts[state] != NO_MATCH) {
+            return combine(exactVerdicts[state], prefixVerdicts[state]);
+        }
+        return best;
+    }
+
+    private static byte combine(byte a, byte b) {
+        if (a == ALLOW || b == ALLOW) {
+            return ALLOW;
+        }
+        return a != NO_MATCH ? a : b;
+    }
+
+    // Collects patterns into a trie and turns it into a deterministic automaton.
+    // Compiling may be slow for large lists and must not run on the screening thread.
+    public static class Compiler {
+        // Trie nodes: 10 digit children plus the wildcard child
+        private final List<int[]> children = new ArrayList<>();
+        private final List<byte[]> verdicts = new ArrayList<>(); // { exact, prefix }
+        private int patternCount = 0;
+        private final int region;
+        // Patterns in E.164 form for keys, null without a region
+        private final Compiler keyCompiler;
+        private boolean keyPatternsDiffer = false;
+
+        // Patterns are matched against keys as written
+        public Compiler() {
+            this(-1);
+        }
+
+        // region is the PhoneNumbers.regionIndex() whose dialing rules bring patterns to E.164 form, -1 for none
+        public Compiler(int region) {
+            this.region = region;
+            this.keyCompiler = region >= 0 ? new Compiler() : null;
+            newNode();
+        }
+
+        private int newNode() {
+            int[] node = new int[11];
+            Arrays.fill(node, -1);
+            children.add(node);
+            verdicts.add(new byte[2]);
+            return children.size() - 1;
+        }
+
+        // Returns false if the pattern is not valid and was skipped
+        public boolean add(String pattern, byte verdict) {
+            if (!addToTrie(pattern, verdict)) {
+                return false;
+            }
+
+            if (keyCompiler != null) {
+                addKeyPatterns(pattern, verdict);
+            }
+            return true;
+        }
+
+        // Adds the pattern in E.164 form, the same way PhoneNumbers.e164Key() brings numbers to it: the
+        // international prefix is taken out, or the trunk prefix is replaced by the country code. Patterns
+        // with neither may be E.164 without the plus or national numbers without the trunk prefix, such as
+        // "495*" in Russia, so both forms are added. Patterns that start with '+' are E.164 already.
+        private void addKeyPatterns(String pattern, byte verdict) {
+            StringBuilder symbols = new StringBuilder(pattern.length());
+            boolean prefix = false;
+            for (int i = 0; i < pattern.length(); i++) {
+                char c = pattern.charAt(i);
+                if (c == '+' && symbols.length() == 0) {
+                    keyCompiler.addToTrie(pattern, verdict);
+                    return;
+                } else if (PhoneNumbers.isDigit(c) || c == '?') {
+                    symbols.append(c);
+                } else if (c == '*') {
+                    prefix = true;
+                    break;
+                }
+            }
+            String end = prefix ? "*" : "";
+            keyPatternsDiffer = true;
+
+            // Dialed with the international prefix, the rest is E.164 already
+            int prefixLength = RegionTables.INTERNATIONAL_PREFIX_LENGTHS[region];
+            if (prefixLength > 0 && symbols.length() > prefixLength
+                    && startsWith(symbols, RegionTables.INTERNATIONAL_PREFIXES[region], prefixLength)) {
+                keyCompiler.addToTrie(symbols.substring(prefixLength) + end, verdict);
+                return;
+            }
+
+            // National number with the trunk prefix
+            prefixLength = RegionTables.TRUNK_PREFIX_LENGTHS[region];
+            if (prefixLength > 0 && symbols.length() > prefixLength
+                    && (prefix || isNationalLength(symbols.length() - prefixLength))
+                    && startsWith(symbols, RegionTables.TRUNK_PREFIXES[region], prefixLength)) {
+                keyCompiler.addToTrie(RegionTables.COUNTRY_CODES[region] + symbols.substring(prefixLength) + end, verdict);
+                return;
+            }
+
+            // E.164 without the plus, and a national number without the trunk prefix
+            keyCompiler.addToTrie(pattern, verdict);
+            if (symbols.length() > 0 && (prefix || isNationalLength(symbols.length()))) {
+                keyCompiler.addToTrie(RegionTables.COUNTRY_CODES[region] + symbols.toString() + end, verdict);
+            }
+        }
+
+        private boolean isNationalLength(int length) {
+            return length >= RegionTables.MIN_NATIONAL_LENGTHS[region] && length <= RegionTables.MAX_NATIONAL_LENGTHS[region];
+        }
+
+        // Whether the symbols start with the digits of a prefix, leading zeros included
+        private static boolean startsWith(CharSequence symbols, int digits, int length) {
+            for (int i = length - 1; i >= 0; i--, digits /= 10) {
+                if (symbols.charAt(i) != (char) ('0' + digits % 10)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private boolean addToTrie(String pattern, byte verdict) {
+            if (verdict != ALLOW && verdict != BLOCK) {
+                throw new IllegalArgumentException("Pattern verdict must be ALLOW or BLOCK.");
+            }
+
+            int node = 0;
+            boolean prefix = false;
+            boolean empty = true;
+
+            for (int i = 0; i < pattern.length(); i++) {
+                char c = pattern.charAt(i);
+                int edge;
+
+                if (prefix) {
+                    // Nothing may follow '*'
+                    if (PhoneNumbers.isDigit(c) || c == '?' || c == '*') {
+                        return false;
+                    }
+                    continue;
+                } else if (PhoneNumbers.isDigit(c)) {
+                    edge = c - '0';
+                } else if (c == '?') {
+                    edge = WILDCARD;
+                } else if (c == '*') {
+                    prefix = true;
+                    continue;
+                } else {
+                    continue;
+                }
+
+                empty = false;
+                int next = children.get(node)[edge];
+                if (next < 0) {
+                    next = newNode();
+                    children.get(node)[edge] = next;
+                }
+                node = next;
+            }
+
+            if (empty && !prefix) {
+                return false;
+            }
+
+            byte[] nodeVerdicts = verdicts.get(node);
+            int slot = prefix ? 1 : 0;
+            nodeVerdicts[slot] = combine(nodeVerdicts[slot], verdict);
+            patternCount++;
+            return true;
+        }
+
+        public NumberPatternMatcher compile() {
+            if (patternCount == 0) {
+                return EMPTY;
+            }
+            NumberPatternMatcher keyPatterns = keyPatternsDiffer ? keyCompiler.compile() : null;
+
+            // Subset construction: every automaton state is a set of trie nodes
+            Map<NodeSet, Integer> states = new HashMap<>();
+            List<int[]> stateNodes = new ArrayList<>();
+            ArrayDeque<Integer> queue = new ArrayDeque<>();
+
+            int[] transitions = new int[64 * 10];
+            byte[] exact = new byte[64];
+            byte[] prefix = new byte[64];
+
+            int[] start = { 0 };
+            states.put(new NodeSet(start), 0);
+            stateNodes.add(start);
+            queue.add(0);
+
+            int[] buffer = new int[children.size()];
+
+            while (!queue.isEmpty()) {
+                int state = queue.poll();
+                int[] nodes = stateNodes.get(state);
+
+                if (state >= exact.length) {
+                    exact = Arrays.copyOf(exact, exact.length * 2);
+                    prefix = Arrays.copyOf(prefix, prefix.length * 2);
+                }
+                for (int node : nodes) {
+                    exact[state] = combine(exact[state], verdicts.get(node)[0]);
+                    prefix[state] = combine(prefix[state], verdicts.get(node)[1]);
+                }
+
+                for (int digit = 0; digit < 10; digit++) {
+                    int size = 0;
+                    for (int node : nodes) {
+                        int[] nodeChildren = children.get(node);
+                        if (nodeChildren[digit] >= 0) {
+                            buffer[size++] = nodeChildren[digit];
+                        }
+                        if (nodeChildren[WILDCARD] >= 0) {
+                            buffer[size++] = nodeChildren[WILDCARD];
+                        }
+                    }
+
+                    if ((state + 1) * 10 > transitions.length) {
+                        transitions = Arrays.copyOf(transitions, transitions.length * 2);
+                    }
+
+                    if (size == 0) {
+                        transitions[state * 10 + digit] = -1;
+                        continue;
+                    }
+
+                    int[] next = Arrays.copyOf(buffer, size);
+                    Arrays.sort(next);
+                    next = distinct(next);
+
+                    NodeSet key = new NodeSet(next);
+                    Integer nextState = states.get(key);
+                    if (nextState == null) {
+                        nextState = stateNodes.size();
+                        if (nextState >= MAX_STATES) {
+                            throw new IllegalStateException("Too many wildcard patterns to compile.");
+                        }
+                        states.put(key, nextState);
+                        stateNodes.add(next);
+                        queue.add(nextState);
+                    }
+                    transitions[state * 10 + digit] = nextState;
+                }
+            }
+
+            int count = stateNodes.size();
+            return new NumberPatternMatcher(
+                    Arrays.copyOf(transitions, count * 10),
+                    Arrays.copyOf(exact, count),
+                    Arrays.copyOf(prefix, count),
+                    patternCount,
+                    keyPatterns);
+        }
+
+        private static int[] distinct(int[] sorted) {
+            int unique = 1;
+            for (int i = 1; i < sorted.length; i++) {
+                if (sorted[i] != sorted[unique - 1]) {
+                    sorted[unique++] = sorted[i];
+                }
+            }
+            return unique == sorted.length ? sorted : Arrays.copyOf(sorted, unique);
+        }
+    }
+
+    private static final class NodeSet {
+        private final int[] nodes;
+        private final int hash;
+
+        NodeSet(int[] nodes) {
+            this.nodes = nodes;
+            this.hash = Arrays.hashCode(nodes);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof NodeSet && Arrays.equals(nodes, ((NodeSet) o).nodes);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
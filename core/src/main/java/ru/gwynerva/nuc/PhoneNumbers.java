@@ -0,0 +1,172 @@
+package ru.gwynerva.nuc;
+
+// Character level helpers for phone numbers that work on any CharSequence without allocating
+public final class PhoneNumbers {
+    // Longest E.164 number
+    public static final int MAX_KEY_DIGITS = 15;
+    // Shortest number still accepted as E.164
+    private static final int MIN_E164_DIGITS = 7;
+    // Longest international prefix plus the longest E.164 number still fits a long
+    private static final int MAX_DIALED_DIGITS = 18;
+
+    static final long[] POWERS_OF_TEN = new long[MAX_DIALED_DIGITS + 1];
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
+    private PhoneNumbers() {}
+
+    public static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    // Everything after a pause, wait or extension separator is post-dial and ignored
+    public static int dialableEnd(CharSequence number) {
+        int length = number.length();
+        for (int i = 0; i < length; i++) {
+            switch (number.charAt(i)) {
+                case ',':
+                case ';':
+                case 'p':
+                case 'P':
+                case 'w':
+                case 'W':
+                    return i;
+            }
+        }
+        return length;
+    }
+
+    public static int countDigits(CharSequence number, int end) {
+        int count = 0;
+        for (int i = 0; i < end; i++) {
+            if (isDigit(number.charAt(i))) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    // Identifies the number by its last MAX_KEY_DIGITS dialable digits, 0 if there are none.
+    // Digits are stored in base 11 (digit + 1), so leading zeros are kept: "0123" and "123" differ.
+    public static long key(CharSequence number) {
+        int end = dialableEnd(number);
+        int skip = Math.max(countDigits(number, end) - MAX_KEY_DIGITS, 0);
+        long key = 0;
+        for (int i = 0; i < end; i++) {
+            char c = number.charAt(i);
+            if (!isDigit(c)) {
+                continue;
+            }
+            if (skip > 0) {
+                skip--;
+                continue;
+            }
+            key = key * 11 + (c - '0' + 1);
+        }
+        return key;
+    }
+
+    // Index of the region for e164Key(), -1 if its dialing rules are unknown
+    public static int regionIndex(String region) {
+        return RegionTables.indexOf(region);
+    }
+
+    // Canonical key of the number: its E.164 digits as a decimal number, e.g. 79121234567 for
+    // "+7 912 123-45-67", "8 (912) 123-45-67", "81079121234567" (via the international prefix) and "9121234567"
+    // in Russia. Numbers that cannot be brought to E.164 form with the dialing rules of the region get
+    // the negated key() instead, so the same digits still give the same key. 0 if there are no digits.
+    public static long e164Key(CharSequence number, int region) {
+        int end = dialableEnd(number);
+        boolean plus = false;
+        int digits = 0;
+        long value = 0;
+        for (int i = 0; i < end; i++) {
+            char c = number.charAt(i);
+            if (isDigit(c)) {
+                if (++digits <= MAX_DIALED_DIGITS) {
+                    value = value * 10 + (c - '0');
+                }
+            } else if (c == '+' && digits == 0) {
+                plus = true;
+            }
+        }
+
+        if (digits == 0) {
+            return 0;
+        }
+        if (digits > MAX_DIALED_DIGITS) {
+            return -key(number);
+        }
+        if (plus) {
+            return isE164(value, digits) ? value : -key(number);
+        }
+        if (region < 0) {
+            return -key(number);
+        }
+
+        // Dialed with the international prefix, the rest is E.164 already
+        int prefixLength = RegionTables.INTERNATIONAL_PREFIX_LENGTHS[region];
+        if (prefixLength > 0 && digits > prefixLength
+                && leadingDigits(value, digits, prefixLength) == RegionTables.INTERNATIONAL_PREFIXES[region]) {
+            long rest = value % POWERS_OF_TEN[digits - prefixLength];
+            return isE164(rest, digits - prefixLength) ? rest : -key(number);
+        }
+
+        int countryCode = RegionTables.COUNTRY_CODES[region];
+        int countryLength = countDecimalDigits(countryCode);
+
+        // National number with the trunk prefix
+        prefixLength = RegionTables.TRUNK_PREFIX_LENGTHS[region];
+        if (prefixLength > 0 && isNationalLength(region, digits - prefixLength)
+                && leadingDigits(value, digits, prefixLength) == RegionTables.TRUNK_PREFIXES[region]) {
+            int nationalLength = digits - prefixLength;
+            return toE164(countryCode, countryLength, value % POWERS_OF_TEN[nationalLength], nationalLength, number);
+        }
+
+        // E.164 without the plus
+        if (digits > countryLength && isNationalLength(region, digits - countryLength)
+                && leadingDigits(value, digits, countryLength) == countryCode) {
+            return isE164(value, digits) ? value : -key(number);
+        }
+
+        // National number without the trunk prefix
+        if (isNationalLength(region, digits)) {
+            return toE164(countryCode, countryLength, value, digits, number);
+        }
+
+        return -key(number);
+    }
+
+    private static long toE164(int countryCode, int countryLength, long national, int nationalLength, CharSequence number) {
+        long value = countryCode * POWERS_OF_TEN[nationalLength] + national;
+        return isE164(value, countryLength + nationalLength) ? value : -key(number);
+    }
+
+    // E.164 numbers never start with 0
+    private static boolean isE164(long value, int digits) {
+        return digits >= MIN_E164_DIGITS && digits <= MAX_KEY_DIGITS && value >= POWERS_OF_TEN[digits - 1];
+    }
+
+    private static boolean isNationalLength(int region, int length) {
+        return length >= RegionTables.MIN_NATIONAL_LENGTHS[region] && length <= RegionTables.MAX_NATIONAL_LENGTHS[region];
+    }
+
+    // First count digits of a number with the given number of digits, leading zeros included
+    private static long leadingDigits(long value, int digits, int count) {
+        return value / POWERS_OF_TEN[digits - count];
+    }
+
+    static int countDecimalDigits(int value) {
+        int count = 1;
+        while (value >= 10) {
+            value /= 10;
+            count++;
+        }
+        return count;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,4 @@
+package ru.gwynerva.nuc;
+
+// Whether calls are screened. The order is stored in the settings file, new states go last.
+public enum ProtectionState { ACTIVE, PAUSED, STOPPED }
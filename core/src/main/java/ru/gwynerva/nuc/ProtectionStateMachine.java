@@ -0,0 +1,80 @@
+package ru.gwynerva.nuc;
+
+// Protection state and the end of a pause, loaded from Storage and saved to it on every change.
+//
+// A pause always has an end, once the clock passes it protection is active again. isActive() sees that
+// right away. The saved state only changes when the owner calls resumeIfPauseOver(), when an alarm fires,
+// the process starts or a call is screened after the end of the pause.
+//
+// Thread safe. Reads are a volatile load, changes are serialized.
+public final class ProtectionStateMachine {
+    // Immutable, replaced as a whole on every change
+    private static final class Values {
+        final ProtectionState state;
+        // Pause end, 0 unless paused
+        final long pauseUntil;
+
+        Values(ProtectionState state, long pauseUntil) {
+            this.state = state;
+            this.pauseUntil = pauseUntil;
+        }
+    }
+
+    private final Storage storage;
+    private final Clock clock;
+    private volatile Values values;
+
+    public ProtectionStateMachine(Storage storage, Clock clock) {
+        this.storage = storage;
+        this.clock = clock;
+
+        ProtectionState state = storage.getState();
+        values = new Values(state, state == ProtectionState.PAUSED ? storage.getPauseUntil() : 0);
+    }
+
+    public ProtectionState getState() {
+        return values.state;
+    }
+
+    // Pause end, 0 unless paused
+    public long getPauseUntil() {
+        return values.pauseUntil;
+    }
+
+    public boolean isActive() {
+        return isActive(clock.currentTimeMillis());
+    }
+
+    // A pause that is over counts as active, even if resumeIfPauseOver() has not been called yet
+    public boolean isActive(long now) {
+        Values current = values;
+        return current.state == ProtectionState.ACTIVE
+                || (current.state == ProtectionState.PAUSED && TimeUtils.isPauseExpired(current.pauseUntil, now));
+    }
+
+    // pauseUntil is only kept for the paused state. Returns false if nothing changed.
+    public synchronized boolean setState(ProtectionState state, long pauseUntil) {
+        if (state != ProtectionState.PAUSED) {
+            pauseUntil = 0;
+        }
+
+        Values current = values;
+        if (current.state == state && current.pauseUntil == pauseUntil) {
+            return false;
+        }
+
+        values = new Values(state, pauseUntil);
+        storage.setState(state, pauseUntil);
+        return true;
+    }
+
+    // Activates protection if it is paused and the pause is over. Returns false if nothing changed.
+    public synchronized boolean resumeIfPauseOver() {
+        Values current = values;
+        if (current.state != ProtectionState.PAUSED
+                || !TimeUtils.isPauseExpired(current.pauseUntil, clock.currentTimeMillis())) {
+            return false;
+        }
+        return setState(ProtectionState.ACTIVE, 0);
+    }
+}
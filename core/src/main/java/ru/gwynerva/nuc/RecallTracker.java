@@ -0,0 +1,203 @@
+package ru.gwynerva.nuc;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+// Remembers unknown numbers for the recall period.
+//
+// Every number is kept for the same period, so entries expire in the order they were added.
+// They live in a fixed size FIFO ring (a timing wheel with a single slot per entry) and are found
+// through an open addressing hash of ring positions. Insert, lookup and expiry are O(1), and once the
+// ring is full the oldest number is dropped, so memory never grows past the capacity.
+//
+// The ring itself is a memory mapped file, so remembered numbers survive service restarts and reboots.
+// Not thread safe, used only on the screening thread.
+public final class RecallTracker {
+    private static final int MAGIC = 0x4e554352; // "NUCR"
+    private static final int VERSION = 1;
+
+    // Header: magic, version, capacity, head, size
+    private static final int HEADER_SIZE = 5 * 4;
+    private static final int ENTRY_SIZE = 2 * 8; // key, expiry
+    private static final int OFFSET_HEAD = 12;
+    private static final int OFFSET_SIZE = 16;
+
+    private final int capacity;
+    private final ByteBuffer ring;
+    // Ring position + 1 of every remembered key, 0 for an empty slot
+    private final int[] table;
+    private final int tableMask;
+
+    private int head;
+    private int size;
+
+    // Falls back to memory only when the file cannot be mapped
+    public RecallTracker(File file, int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive.");
+        }
+
+        this.capacity = capacity;
+        this.table = new int[Integer.highestOneBit(capacity) * 4];
+        this.tableMask = table.length - 1;
+        this.ring = map(file, HEADER_SIZE + capacity * ENTRY_SIZE);
+
+        if (ring.getInt(0) == MAGIC && ring.getInt(4) == VERSION && ring.getInt(8) == capacity) {
+            head = ring.getInt(OFFSET_HEAD);
+            size = ring.getInt(OFFSET_SIZE);
+            if (head < 0 || head >= capacity || size < 0 || size > capacity) {
+                clear();
+            } else {
+                for (int i = 0; i < size; i++) {
+                    int position = (head + i) % capacity;
+                    tableInsert(keyAt(position), position);
+                }
+            }
+        } else {
+            ring.putInt(0, MAGIC);
+            ring.putInt(4, VERSION);
+            ring.putInt(8, capacity);
+            clear();
+        }
+    }
+
+    private static ByteBuffer map(File file, int length) {
+        if (file != null) {
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw");
+                 FileChannel channel = raf.getChannel()) {
+                // Mapping stays valid after the channel is closed
+                return channel.map(FileChannel.MapMode.READ_WRITE, 0, length);
+            } catch (IOException e) {
+                // Fall through to memory only
+            }
+        }
+        return ByteBuffer.allocate(length);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    // Check if the number was remembered and has not expired yet
+    public boolean contains(long key, long now) {
+        expire(now);
+        return tableFind(key) >= 0;
+    }
+
+    // Remember the number until the given time, the oldest number is dropped if the ring is full
+    public void add(long key, long expiry, long now) {
+        expire(now);
+        if (key == 0 || tableFind(key) >= 0) {
+            return;
+        }
+
+        if (size == capacity) {
+            removeHead();
+        }
+
+        int position = (head + size) % capacity;
+        ring.putLong(entryOffset(position), key);
+        ring.putLong(entryOffset(position) + 8, expiry);
+        tableInsert(key, position);
+        setSize(size + 1);
+    }
+
+    // Drop every number that expired before now
+    public void expire(long now) {
+        while (size > 0 && expiryAt(head) < now) {
+            removeHead();
+        }
+    }
+
+    public void clear() {
+        Arrays.fill(table, 0);
+        setHead(0);
+        setSize(0);
+    }
+
+    private void removeHead() {
+        tableRemove(keyAt(head));
+        setHead((head + 1) % capacity);
+        setSize(size - 1);
+    }
+
+    private void setHead(int head) {
+        this.head = head;
+        ring.putInt(OFFSET_HEAD, head);
+    }
+
+    private void setSize(int size) {
+        this.size = size;
+        ring.putInt(OFFSET_SIZE, size);
+    }
+
+    private static int entryOffset(int position) {
+        return HEADER_SIZE + position * ENTRY_SIZE;
+    }
+
+    private long keyAt(int position) {
+        return ring.getLong(entryOffset(position));
+    }
+
+    private long expiryAt(int position) {
+        return ring.getLong(entryOffset(position) + 8);
+    }
+
+    //
+    // Hash of ring positions, linear probing
+    //
+
+    private int slotOf(long key) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash >>> 32) & tableMask;
+    }
+
+    // Returns the table slot of the key or -1
+    private int tableFind(long key) {
+        for (int slot = slotOf(key); table[slot] != 0; slot = (slot + 1) & tableMask) {
+            if (keyAt(table[slot] - 1) == key) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    private void tableInsert(long key, int position) {
+        int slot = slotOf(key);
+        while (table[slot] != 0) {
+            slot = (slot + 1) & tableMask;
+        }
+        table[slot] = position + 1;
+    }
+
+    // Backward shift deletion keeps probe sequences intact without tombstones
+    private void tableRemove(long key) {
+        int slot = tableFind(key);
+        if (slot < 0) {
+            return;
+        }
+
+        int next = (slot + 1) & tableMask;
+        while (table[next] != 0) {
+            int ideal = slotOf(keyAt(table[next] - 1));
+            // Move the entry back if its ideal slot is not between the hole and its current slot
+            boolean movable = slot <= next
+                    ? (ideal <= slot || ideal > next)
+                    : (ideal <= slot && ideal > next);
+            if (movable) {
+                table[slot] = table[next];
+                slot = next;
+            }
+            next = (next + 1) & tableMask;
+        }
+        table[slot] = 0;
+    }
+}
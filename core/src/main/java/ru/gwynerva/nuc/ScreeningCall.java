@@ -0,0 +1,30 @@
+package ru.gwynerva.nuc;
+
+// Everything screening rules know about one incoming call.
+// The screening thread reuses a single instance, so rules must not keep references to it.
+public final class ScreeningCall {
+    // Protection is ACTIVE, not paused or stopped
+    public boolean active;
+    public boolean incoming;
+    public String number;
+    // PhoneNumbers.e164Key() of the number, rules compare numbers by it
+    public long numberKey;
+    public long time;
+
+    // Set by ScreeningChain.evaluate()
+    public ScreeningRule.Verdict verdict;
+    public ScreeningRule decidedBy;
+    // Overrides the reason of the deciding rule when set
+    public String reason;
+
+    public void reset(boolean active, boolean incoming, String number, long numberKey, long time) {
+        this.active = active;
+        this.incoming = incoming;
+        this.number = number;
+        this.numberKey = numberKey;
+        this.time = time;
+        this.verdict = ScreeningRule.Verdict.CONTINUE;
+        this.decidedBy = null;
+        this.reason = null;
+    }
+}
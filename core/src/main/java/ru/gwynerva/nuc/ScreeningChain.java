@@ -0,0 +1,197 @@
+package ru.gwynerva.nuc;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+// Immutable, ordered list of screening rules. The first rule that does not continue decides the call,
+// a call that passes every rule gets the default verdict.
+//
+// With a VerdictCache the chain remembers the outcome of the cacheable rules for a number: the first of
+// them that decided and its verdict, or that none did. On a hit cacheable rules are not evaluated, the
+// remembered one decides at its place in the chain, and all other rules still run as usual. An outcome
+// is only stored once every cacheable rule up to the deciding one has been evaluated.
+//
+// Statistics are plain arrays written by the screening thread only, readers may see slightly stale values.
+public final class ScreeningChain {
+    private final ScreeningRule[] rules;
+    private final ScreeningRule.Verdict defaultVerdict;
+    private final String defaultReason;
+    // Null if results are not cached
+    private final VerdictCache cache;
+    private final boolean[] cacheable;
+    // Index of the last cacheable rule, -1 if there is none
+    private final int lastCacheable;
+
+    private final LatencyHistogram[] timings;
+    private final long[] decisions;
+    private long defaultDecisions = 0;
+
+    private ScreeningChain(ScreeningRule[] rules, ScreeningRule.Verdict defaultVerdict, String defaultReason,
+                           VerdictCache cache) {
+        this.rules = rules;
+        this.defaultVerdict = defaultVerdict;
+        this.defaultReason = defaultReason;
+        this.cache = cache;
+        this.cacheable = new boolean[rules.length];
+        this.timings = new LatencyHistogram[rules.length];
+        this.decisions = new long[rules.length];
+
+        int last = -1;
+        for (int i = 0; i < rules.length; i++) {
+            timings[i] = new LatencyHistogram(rules[i].name());
+            cacheable[i] = cache != null && rules[i].cacheable() && rules[i].phase() != ScreeningRule.Phase.GATE;
+            if (cacheable[i]) {
+                last = i;
+            }
+        }
+        this.lastCacheable = last;
+    }
+
+    // Runs the rules in order, stores the verdict and the deciding rule in the call and returns the verdict
+    public ScreeningRule.Verdict evaluate(ScreeningCall call) {
+        // Looked up when the first cacheable rule is reached, calls decided by gate rules never touch the cache
+        boolean lookedUp = false;
+        int generation = 0;
+        int cached = VerdictCache.MISS;
+
+        for (int i = 0; i < rules.length; i++) {
+            ScreeningRule rule = rules[i];
+
+            if (cacheable[i] && call.numberKey > 0) {
+                if (!lookedUp) {
+                    lookedUp = true;
+                    generation = cache.generation();
+                    cached = cache.get(call.numberKey, generation);
+                }
+                if (cached != VerdictCache.MISS) {
+                    if (cachedRule(cached) != i) {
+                        continue;
+                    }
+                    return decide(call, i, cachedVerdict(cached));
+                }
+            }
+
+            long startTime = System.nanoTime();
+            ScreeningRule.Verdict verdict = rule.evaluate(call);
+            timings[i].record(System.nanoTime() - startTime);
+
+            if (verdict != ScreeningRule.Verdict.CONTINUE) {
+                // A reason set by the rule means something went wrong, that outcome is not for keeps
+                boolean known = cacheable[i] || i > lastCacheable;
+                if (lookedUp && cached == VerdictCache.MISS && known && call.reason == null) {
+                    cache.put(call.numberKey, generation, cacheable[i] ? encode(i, verdict) : NONE_DECIDED);
+                }
+                return decide(call, i, verdict);
+            }
+        }
+
+        if (lookedUp && cached == VerdictCache.MISS) {
+            cache.put(call.numberKey, generation, NONE_DECIDED);
+        }
+
+        defaultDecisions++;
+        call.verdict = defaultVerdict;
+        call.decidedBy = null;
+        if (call.reason == null) {
+            call.reason = defaultReason;
+        }
+        return defaultVerdict;
+    }
+
+    private ScreeningRule.Verdict decide(ScreeningCall call, int index, ScreeningRule.Verdict verdict) {
+        ScreeningRule rule = rules[index];
+        decisions[index]++;
+        call.verdict = verdict;
+        call.decidedBy = rule;
+        if (call.reason == null) {
+            call.reason = rule.reason();
+        }
+        return verdict;
+    }
+
+    //
+    // Cached outcomes: index of the deciding rule and its verdict, or NONE_DECIDED
+    //
+
+    private static final int NONE_DECIDED = -1;
+    private static final ScreeningRule.Verdict[] VERDICTS = ScreeningRule.Verdict.values();
+
+    private static int encode(int index, ScreeningRule.Verdict verdict) {
+        return index << 2 | verdict.ordinal();
+    }
+
+    private static int cachedRule(int cached) {
+        return cached == NONE_DECIDED ? -1 : cached >> 2;
+    }
+
+    private static ScreeningRule.Verdict cachedVerdict(int cached) {
+        return VERDICTS[cached & 3];
+    }
+
+    public int size() {
+        return rules.length;
+    }
+
+    public ScreeningRule getRule(int index) {
+        return rules[index];
+    }
+
+    public long getEvaluations(int index) {
+        return timings[index].getCount();
+    }
+
+    public long getDecisions(int index) {
+        return decisions[index];
+    }
+
+    // Time of every single evaluation of the rule
+    public LatencyHistogram getTimings(int index) {
+        return timings[index];
+    }
+
+    public long getDefaultDecisions() {
+        return defaultDecisions;
+    }
+
+    // Null if results are not cached
+    public VerdictCache getCache() {
+        return cache;
+    }
+
+    public static class Builder {
+        private final List<ScreeningRule> rules = new ArrayList<>();
+        private ScreeningRule.Verdict defaultVerdict = ScreeningRule.Verdict.REJECT;
+        private String defaultReason = "No rule allowed the call.";
+        private VerdictCache cache;
+
+        public Builder add(ScreeningRule rule) {
+            rules.add(rule);
+            return this;
+        }
+
+        public Builder setDefault(ScreeningRule.Verdict verdict, String reason) {
+            if (verdict == ScreeningRule.Verdict.CONTINUE) {
+                throw new IllegalArgumentException("Default verdict must allow or reject.");
+            }
+            defaultVerdict = verdict;
+            defaultReason = reason;
+            return this;
+        }
+
+        public Builder setCache(VerdictCache cache) {
+            this.cache = cache;
+            return this;
+        }
+
+        // Rules of the same phase and cost keep the order they were added in
+        public ScreeningChain build() {
+            ScreeningRule[] sorted = rules.toArray(new ScreeningRule[0]);
+            Arrays.sort(sorted, Comparator
+                    .comparing(ScreeningRule::phase)
+                    .thenComparingInt(ScreeningRule::cost));
+            return new ScreeningChain(sorted, defaultVerdict, defaultReason, cache);
+        }
+    }
+}
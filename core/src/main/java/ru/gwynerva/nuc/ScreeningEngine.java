@@ -0,0 +1,81 @@
+package ru.gwynerva.nuc;
+
+// Decides calls: turns what the system reports about a call into a ScreeningCall and runs it through
+// the chain, with the protection state of the state machine and the time of the clock.
+//
+// Everything Android-specific stays with the caller, which answers the call and keeps the statistics.
+// Not thread safe, all calls must come from one screening thread.
+public final class ScreeningEngine {
+    private final ScreeningChain chain;
+    private final ProtectionStateMachine stateMachine;
+    private final Clock clock;
+
+    // Reused for every call, see screen()
+    private final ScreeningCall call = new ScreeningCall();
+    // Time of every decision, number key included
+    private final LatencyHistogram timings = new LatencyHistogram("rules");
+    // Dialing rules for number keys, -1 if unknown
+    private int region = -1;
+
+    public ScreeningEngine(ScreeningChain chain, ProtectionStateMachine stateMachine, Clock clock) {
+        this.chain = chain;
+        this.stateMachine = stateMachine;
+        this.clock = clock;
+    }
+
+    // PhoneNumbers.regionIndex() of the country whose numbers are dialed without a country code
+    public void setRegion(int region) {
+        this.region = region;
+    }
+
+    // Key the rules compare the number by, see ScreeningCall.numberKey
+    public long numberKey(String number) {
+        return PhoneNumbers.e164Key(number, region);
+    }
+
+    // Decides a call that arrives now. The returned call is reused, it is only valid until the next one.
+    public ScreeningCall screen(String number, boolean incoming) {
+        return screen(number, incoming, clock.currentTimeMillis());
+    }
+
+    // Decides a call that arrived at the given time. The returned call is reused, it is only valid until the next one.
+    public ScreeningCall screen(String number, boolean incoming, long time) {
+        long startTime = System.nanoTime();
+        call.reset(stateMachine.isActive(time), incoming, number, numberKey(number), time);
+        chain.evaluate(call);
+        timings.record(System.nanoTime() - startTime);
+        return call;
+    }
+
+    // Decides the first count calls in order, as if they arrived one by one, and stores the verdicts.
+    // decidedBy receives the deciding rules, null for the default verdict, and may itself be null.
+    // Returns the number of allowed calls.
+    public int screenBatch(CallDescriptor[] calls, int count, ScreeningRule.Verdict[] verdicts,
+                           ScreeningRule[] decidedBy) {
+        int allowed = 0;
+        for (int i = 0; i < count; i++) {
+            CallDescriptor descriptor = calls[i];
+            ScreeningCall decided = screen(descriptor.number, descriptor.incoming, descriptor.time);
+            verdicts[i] = decided.verdict;
+            if (decidedBy != null) {
+                decidedBy[i] = decided.decidedBy;
+            }
+            if (decided.verdict == ScreeningRule.Verdict.ALLOW) {
+                allowed++;
+            }
+        }
+        return allowed;
+    }
+
+    public ScreeningChain getChain() {
+        return chain;
+    }
+
+    public ProtectionStateMachine getStateMachine() {
+        return stateMachine;
+    }
+
+    public LatencyHistogram getTimings() {
+        return timings;
+    }
+}
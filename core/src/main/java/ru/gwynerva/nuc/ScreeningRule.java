@@ -0,0 +1,34 @@
+package ru.gwynerva.nuc;
+
+// One step of call screening. Rules are compiled into a ScreeningChain and evaluated in order
+// until one of them allows or rejects the call.
+//
+// Rules run on the screening thread for every call, so evaluate() must not allocate or block.
+public interface ScreeningRule {
+    enum Verdict { CONTINUE, ALLOW, REJECT }
+
+    // Rules run phase by phase, and by cost inside a phase
+    enum Phase {
+        GATE,       // Calls that must not be screened at all
+        ALLOW,      // Known good callers
+        BLOCK,      // Known bad callers
+        FALLBACK,   // Unknown callers, runs right before the default rejection
+    }
+
+    String name();
+
+    Phase phase();
+
+    // Relative cost of a single evaluation, cheap rules run first
+    int cost();
+
+    // Message logged when this rule decides the call
+    String reason();
+
+    // True if the verdict depends on nothing but the number and data that invalidates the VerdictCache
+    // when it changes. Such rules are skipped when the cache already knows their outcome for the number.
+    // Gate rules are never cached.
+    boolean cacheable();
+
+    Verdict evaluate(ScreeningCall call);
+}
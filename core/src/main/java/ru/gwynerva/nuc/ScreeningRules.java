@@ -0,0 +1,234 @@
+package ru.gwynerva.nuc;
+
+import java.io.File;
+import java.util.function.LongPredicate;
+import java.util.function.Supplier;
+
+// Built-in screening rules. Data they look up comes through small interfaces, so the app and the
+// benchmarks build the same rules over their own sources.
+public final class ScreeningRules {
+    private ScreeningRules() {}
+
+    // Let everything through while protection is paused or stopped
+    public static final class NotActiveRule implements ScreeningRule {
+        @Override public String name() { return "not-active"; }
+        @Override public Phase phase() { return Phase.GATE; }
+        @Override public int cost() { return 1; }
+        @Override public String reason() { return "Protection is not active."; }
+        @Override public boolean cacheable() { return false; }
+
+        @Override
+        public Verdict evaluate(ScreeningCall call) {
+            return call.active ? Verdict.CONTINUE : Verdict.ALLOW;
+        }
+    }
+
+    public static final class NotIncomingRule implements ScreeningRule {
+        @Override public String name() { return "not-incoming"; }
+        @Override public Phase phase() { return Phase.GATE; }
+        @Override public int cost() { return 1; }
+        @Override public String reason() { return "Not an incoming call."; }
+        @Override public boolean cacheable() { return false; }
+
+        @Override
+        public Verdict evaluate(ScreeningCall call) {
+            return call.incoming ? Verdict.CONTINUE : Verdict.ALLOW;
+        }
+    }
+
+    public static final class EmptyNumberRule implements ScreeningRule {
+        @Override public String name() { return "empty-number"; }
+        @Override public Phase phase() { return Phase.GATE; }
+        @Override public int cost() { return 1; }
+        @Override public String reason() { return "Empty call number."; }
+        @Override public boolean cacheable() { return false; }
+
+        @Override
+        public Verdict evaluate(ScreeningCall call) {
+            return call.number == null || call.number.isEmpty() ? Verdict.ALLOW : Verdict.CONTINUE;
+        }
+    }
+
+    // Without contacts we cannot tell known callers from unknown ones, so do not reject anybody
+    public static final class ContactsPermissionRule implements ScreeningRule {
+        private final ContactSource contacts;
+
+        public ContactsPermissionRule(ContactSource contacts) {
+            this.contacts = contacts;
+        }
+
+        @Override public String name() { return "contacts-permission"; }
+        @Override public Phase phase() { return Phase.GATE; }
+        @Override public int cost() { return 10; }
+        @Override public String reason() { return "No contacts permission. Cannot check if caller is in contacts."; }
+        @Override public boolean cacheable() { return false; }
+
+        @Override
+        public Verdict evaluate(ScreeningCall call) {
+            return contacts.isAvailable() ? Verdict.CONTINUE : Verdict.ALLOW;
+        }
+    }
+
+    public static final class ContactRule implements ScreeningRule {
+        private final ContactSource contacts;
+
+        public ContactRule(ContactSource contacts) {
+            this.contacts = contacts;
+        }
+
+        @Override public String name() { return "contact"; }
+        @Override public Phase phase() { return Phase.ALLOW; }
+        @Override public int cost() { return 100; }
+        @Override public String reason() { return "It is a contact call."; }
+        @Override public boolean cacheable() { return true; }
+
+        @Override
+        public Verdict evaluate(ScreeningCall call) {
+            try {
+                return contacts.contains(call.number) ? Verdict.ALLOW : Verdict.CONTINUE;
+            } catch (RuntimeException e) {
+                call.reason = "Failed to check call number in contacts.";
+                return Verdict.ALLOW;
+            }
+        }
+    }
+
+    // Allow or block number ranges from the user's pattern lists.
+    // One instance runs in the allow phase for allow patterns, another in the block phase for block patterns.
+    public static final class PatternRule implements ScreeningRule {
+        private final Supplier<NumberPatternMatcher> patterns;
+        private final Verdict verdict;
+        private final byte matchVerdict;
+
+        // patterns gives the current matcher, it is asked for every call
+        public PatternRule(Supplier<NumberPatternMatcher> patterns, Verdict verdict) {
+            if (verdict == Verdict.CONTINUE) {
+                throw new IllegalArgumentException("Pattern rule must allow or reject.");
+            }
+            this.patterns = patterns;
+            this.verdict = verdict;
+            this.matchVerdict = verdict == Verdict.ALLOW ? NumberPatternMatcher.ALLOW : NumberPatternMatcher.BLOCK;
+        }
+
+        @Override public String name() { return verdict == Verdict.ALLOW ? "allow-pattern" : "block-pattern"; }
+        @Override public Phase phase() { return verdict == Verdict.ALLOW ? Phase.ALLOW : Phase.BLOCK; }
+        @Override public int cost() { return 20; }
+        @Override public String reason() { return verdict == Verdict.ALLOW ? "Number matches an allow pattern." : "Number matches a block pattern."; }
+        @Override public boolean cacheable() { return true; }
+
+        @Override
+        public Verdict evaluate(ScreeningCall call) {
+            NumberPatternMatcher matcher = patterns.get();
+            byte match = call.numberKey > 0 ? matcher.match(call.numberKey) : matcher.match(call.number);
+            return match == matchVerdict ? verdict : Verdict.CONTINUE;
+        }
+    }
+
+    // Reject numbers listed in the spam database, even if they call again within the recall period
+    public static final class SpamRule implements ScreeningRule {
+        private final LongPredicate spamList;
+
+        // spamList is asked for E.164 keys only. If it throws, the rule is skipped for the call.
+        public SpamRule(LongPredicate spamList) {
+            this.spamList = spamList;
+        }
+
+        @Override public String name() { return "spam-database"; }
+        @Override public Phase phase() { return Phase.BLOCK; }
+        @Override public int cost() { return 30; }
+        @Override public String reason() { return "Number is in the spam database."; }
+        @Override public boolean cacheable() { return true; }
+
+        @Override
+        public Verdict evaluate(ScreeningCall call) {
+            try {
+                return call.numberKey > 0 && spamList.test(call.numberKey) ? Verdict.REJECT : Verdict.CONTINUE;
+            } catch (RuntimeException e) {
+                // A damaged database must not decide calls, the other rules still do
+                return Verdict.CONTINUE;
+            }
+        }
+    }
+
+    // Reject unknown calls from a number range that has called too often within the burst window,
+    // even if they call again within the recall period.
+    // Every unknown call is counted, so it runs first in its phase. Accessed only on the screening thread.
+    public static final class BurstRule implements ScreeningRule {
+        private final BurstDetector detector;
+        private final int threshold;
+
+        public BurstRule(BurstDetector detector, int threshold) {
+            this.detector = detector;
+            this.threshold = threshold;
+        }
+
+        @Override public String name() { return "burst"; }
+        @Override public Phase phase() { return Phase.BLOCK; }
+        @Override public int cost() { return 15; }
+        @Override public String reason() { return "Number range is calling in a burst."; }
+        @Override public boolean cacheable() { return false; }
+
+        @Override
+        public Verdict evaluate(ScreeningCall call) {
+            long range = BurstDetector.rangeOf(call.numberKey);
+            if (range == 0) {
+                return Verdict.CONTINUE;
+            }
+            return detector.record(range, call.time) > threshold ? Verdict.REJECT : Verdict.CONTINUE;
+        }
+    }
+
+    // Let an unknown number through when it calls again within the recall period.
+    // Accessed only on the screening thread.
+    public static final class RecallRule implements ScreeningRule {
+        private final File file;
+        private final int capacity;
+        private final long period;
+        private RecallTracker tracker;
+        private volatile boolean enabled;
+
+        // Remembered numbers are kept in the file, or in memory only if it is null
+        public RecallRule(File file, int capacity, long period, boolean enabled) {
+            this.file = file;
+            this.capacity = capacity;
+            this.period = period;
+            this.enabled = enabled;
+        }
+
+        @Override public String name() { return "recall"; }
+        @Override public Phase phase() { return Phase.FALLBACK; }
+        @Override public int cost() { return 20; }
+        @Override public String reason() { return "Repeated call within recall period."; }
+        @Override public boolean cacheable() { return false; }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        // Opens the tracker file on first use, which is why it must happen on the screening thread
+        private RecallTracker getTracker() {
+            if (tracker == null) {
+                tracker = new RecallTracker(file, capacity);
+            }
+            return tracker;
+        }
+
+        @Override
+        public Verdict evaluate(ScreeningCall call) {
+            if (!enabled) {
+                return Verdict.CONTINUE;
+            }
+
+            if (getTracker().contains(call.numberKey, call.time)) {
+                return Verdict.ALLOW;
+            }
+
+            getTracker().add(call.numberKey, call.time + period, call.time);
+            return Verdict.CONTINUE;
+        }
+
+        public void cleanup(long now) {
+            getTracker().expire(now);
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package ru.gwynerva.nuc;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.function.LongConsumer;
+
+// Read-only sorted set of non-negative long keys in a compact file that is used straight from a memory map.
+//
+// Keys are split into blocks of BLOCK_SIZE, files written elsewhere may use another size. A block stores
+// the differences between consecutive keys as varints, and a sparse index holds the first key and the
+// offset of every block. A lookup is a binary search over the index followed by decoding a single block,
+// so nothing has to be loaded up front and only the touched pages are ever read from disk.
+//
+// Layout: header (magic, version, count, block size, block count), index (first key, data offset) per block,
+// then the block data.
+public final class SortedKeyFile {
+    private static final int MAGIC = 0x4e55434b; // "NUCK"
+    private static final int VERSION = 1;
+    public static final int BLOCK_SIZE = 16;
+
+    private static final int HEADER_SIZE = 5 * 4;
+    private static final int INDEX_ENTRY_SIZE = 8 + 4;
+
+    private final ByteBuffer buffer;
+    private final int count;
+    private final int blockSize;
+    private final int blockCount;
+
+    private SortedKeyFile(ByteBuffer buffer) throws IOException {
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IOException("Not a sorted key file.");
+        }
+
+        this.buffer = buffer;
+        this.count = buffer.getInt(8);
+        this.blockSize = buffer.getInt(12);
+        this.blockCount = buffer.getInt(16);
+        if (count < 0 || blockSize <= 0 || blockCount != (int) (((long) count + blockSize - 1) / blockSize)
+                || HEADER_SIZE + (long) blockCount * INDEX_ENTRY_SIZE > buffer.capacity()) {
+            throw new IOException("Sorted key file is damaged.");
+        }
+
+        // Blocks follow the index and each other in key order, lookups trust the index after this
+        long previousKey = -1;
+        long previousOffset = HEADER_SIZE + (long) blockCount * INDEX_ENTRY_SIZE;
+        for (int block = 0; block < blockCount; block++) {
+            long key = firstKey(block);
+            int offset = dataOffset(block);
+            if (key <= previousKey || offset < previousOffset || offset > buffer.capacity()) {
+                throw new IOException("Sorted key file index is damaged at block " + block + ".");
+            }
+            previousKey = key;
+            previousOffset = offset;
+        }
+    }
+
+    // Maps the file, must not be called on the main thread
+    public static SortedKeyFile open(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            // Mapping stays valid after the channel is closed
+            return new SortedKeyFile(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    // Same format kept in memory
+    public static SortedKeyFile wrap(ByteBuffer buffer) throws IOException {
+        return new SortedKeyFile(buffer);
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public boolean contains(long key) {
+        return ceiling(key) == key;
+    }
+
+    // Smallest key that is not less than the given one, -1 if there is none
+    public long ceiling(long key) {
+        int block = findBlock(key);
+        if (block < 0) {
+            return count > 0 ? firstKey(0) : -1;
+        }
+
+        int position = dataOffset(block);
+        int remaining = Math.min(blockSize, count - block * blockSize);
+        long current = firstKey(block);
+        while (true) {
+            if (current >= key) {
+                return current;
+            }
+            if (--remaining == 0) {
+                break;
+            }
+
+            // Inline varint decoding, this loop is the hot path
+            long delta = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = buffer.get(position++);
+                delta |= (long) (b & 0x7f) << shift;
+                shift += 7;
+            } while (b < 0);
+            current += delta;
+        }
+
+        return block + 1 < blockCount ? firstKey(block + 1) : -1;
+    }
+
+    // All keys in order
+    public long[] toArray() {
+        long[] keys = new long[count];
+        forEach(new LongConsumer() {
+            private int next = 0;
+
+            @Override
+            public void accept(long key) {
+                keys[next++] = key;
+            }
+        });
+        return keys;
+    }
+
+    // Visits all keys in order without loading them at once
+    public void forEach(LongConsumer consumer) {
+        for (int block = 0, i = 0; block < blockCount; block++) {
+            int position = dataOffset(block);
+            int end = Math.min(i + blockSize, count);
+            long current = firstKey(block);
+            consumer.accept(current);
+            i++;
+            while (i < end) {
+                long delta = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    b = buffer.get(position++);
+                    delta |= (long) (b & 0x7f) << shift;
+                    shift += 7;
+                } while (b < 0);
+                current += delta;
+                consumer.accept(current);
+                i++;
+            }
+        }
+    }
+
+    // Last block whose first key is not greater than the key, -1 if the key is below all of them
+    private int findBlock(long key) {
+        int low = 0;
+        int high = blockCount - 1;
+        int found = -1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (firstKey(middle) <= key) {
+                found = middle;
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return found;
+    }
+
+    private long firstKey(int block) {
+        return buffer.getLong(HEADER_SIZE + block * INDEX_ENTRY_SIZE);
+    }
+
+    private int dataOffset(int block) {
+        return buffer.getInt(HEADER_SIZE + block * INDEX_ENTRY_SIZE + 8);
+    }
+
+    //
+    // Writing
+    //
+
+    // Keys must be sorted, non-negative and unique
+    public static ByteBuffer encode(long[] keys, int count) {
+        int blockCount = (count + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        int dataStart = HEADER_SIZE + blockCount * INDEX_ENTRY_SIZE;
+
+        // Every delta takes at most 9 bytes for non-negative keys
+        ByteBuffer buffer = ByteBuffer.allocate(dataStart + Math.max(count - blockCount, 0) * 9);
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, VERSION);
+        buffer.putInt(8, count);
+        buffer.putInt(12, BLOCK_SIZE);
+        buffer.putInt(16, blockCount);
+
+        int position = dataStart;
+        for (int i = 0; i < count; i++) {
+            if (keys[i] < 0 || (i > 0 && keys[i] <= keys[i - 1])) {
+                throw new IllegalArgumentException("Keys must be sorted, non-negative and unique.");
+            }
+
+            if (i % BLOCK_SIZE == 0) {
+                int entry = HEADER_SIZE + (i / BLOCK_SIZE) * INDEX_ENTRY_SIZE;
+                buffer.putLong(entry, keys[i]);
+                buffer.putInt(entry + 8, position);
+                continue;
+            }
+
+            long delta = keys[i] - keys[i - 1];
+            while ((delta & ~0x7fL) != 0) {
+                buffer.put(position++, (byte) ((delta & 0x7f) | 0x80));
+                delta >>>= 7;
+            }
+            buffer.put(position++, (byte) delta);
+        }
+
+        buffer.limit(position);
+        return buffer;
+    }
+
+    // Writes to a temporary file next to the target and renames it, readers see the old or the new file
+    public static void write(File file, long[] keys, int count) throws IOException {
+        ByteBuffer buffer = encode(keys, count);
+        File temporary = new File(file.getPath() + ".new");
+        try (FileOutputStream out = new FileOutputStream(temporary)) {
+            out.write(buffer.array(), 0, buffer.limit());
+            out.getFD().sync();
+        }
+        if (!temporary.renameTo(file)) {
+            temporary.delete();
+            throw new IOException("Failed to replace " + file);
+        }
+    }
+}
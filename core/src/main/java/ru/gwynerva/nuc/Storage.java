@@ -0,0 +1,38 @@
+package ru.gwynerva.nuc;
+
+// Where ProtectionStateMachine keeps the state between process starts.
+// Reads must be cheap, writes may be applied later as long as reads see them at once.
+public interface Storage {
+    ProtectionState getState();
+
+    long getPauseUntil();
+
+    void setState(ProtectionState state, long pauseUntil);
+
+    // Keeps the state in memory only, for tests, benchmarks and replay
+    final class Memory implements Storage {
+        private volatile ProtectionState state;
+        private volatile long pauseUntil;
+
+        public Memory(ProtectionState state, long pauseUntil) {
+            this.state = state;
+            this.pauseUntil = pauseUntil;
+        }
+
+        @Override
+        public ProtectionState getState() {
+            return state;
+        }
+
+        @Override
+        public long getPauseUntil() {
+            return pauseUntil;
+        }
+
+        @Override
+        public void setState(ProtectionState state, long pauseUntil) {
+            this.state = state;
+            this.pauseUntil = pauseUntil;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package ru.gwynerva.nuc;
+
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+public class TimeUtils {
+    // Last formatted timestamp. The same pause end is formatted by every UI update and notification
+    // rebuild, and its text can only change at midnight, so it is reused until the day it was made for
+    // is over, or the time zone changes.
+    private static final class Formatted {
+        final long timestamp;
+        final String tomorrowStr;
+        final Locale locale;
+        // Time zone ID and its offset from UTC at formatting time, a new zone or new rules change the text
+        final String zoneId;
+        final int zoneOffset;
+        // Today, as it was when formatting: the text is valid while the current time is in [dayStart, dayEnd)
+        final long dayStart;
+        final long dayEnd;
+        final String text;
+
+        Formatted(long timestamp, String tomorrowStr, Locale locale, String zoneId, int zoneOffset,
+                  long dayStart, long dayEnd, String text) {
+            this.timestamp = timestamp;
+            this.tomorrowStr = tomorrowStr;
+            this.locale = locale;
+            this.zoneId = zoneId;
+            this.zoneOffset = zoneOffset;
+            this.dayStart = dayStart;
+            this.dayEnd = dayEnd;
+            this.text = text;
+        }
+    }
+
+    private static volatile Formatted lastFormatted;
+
+    // Check if a pause set until pauseUntil (0 for no pause) is over
+    public static boolean isPauseExpired(long pauseUntil, long now) {
+        return pauseUntil > 0 && now >= pauseUntil;
+    }
+
+    public static String formatTimestamp(long timestamp, String tomorrowStr) {
+        return formatTimestamp(timestamp, tomorrowStr, System.currentTimeMillis());
+    }
+
+    // Only allocates the copy TimeZone.getDefault() returns when the previous call formatted the same
+    // timestamp on the same day
+    public static String formatTimestamp(long timestamp, String tomorrowStr, long now) {
+        Formatted cached = lastFormatted;
+        TimeZone zone = TimeZone.getDefault();
+        if (cached != null && cached.timestamp == timestamp && now >= cached.dayStart && now < cached.dayEnd
+                && cached.locale == Locale.getDefault() && cached.tomorrowStr.equals(tomorrowStr)
+                && cached.zoneId.equals(zone.getID()) && cached.zoneOffset == zone.getOffset(now)) {
+            return cached.text;
+        }
+
+        Formatted formatted = format(timestamp, tomorrowStr, now, zone);
+        lastFormatted = formatted;
+        return formatted.text;
+    }
+
+    private static Formatted format(long timestamp, String tomorrowStr, long now, TimeZone zone) {
+        Locale locale = Locale.getDefault();
+
+        // Day boundaries of today
+        Calendar calendar = Calendar.getInstance(zone, locale);
+        calendar.setTimeInMillis(now);
+        calendar.set(Calendar.HOUR_OF_DAY, 0);
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        long dayStart = calendar.getTimeInMillis();
+        calendar.add(Calendar.DAY_OF_YEAR, 1);
+        long dayEnd = calendar.getTimeInMillis();
+
+        // Check if timestamp is tomorrow
+        boolean isTomorrow = timestamp < dayStart || timestamp >= dayEnd;
+
+        calendar.setTimeInMillis(timestamp);
+        String text;
+        // Check if it's midnight (0:00) of tomorrow
+        if (isTomorrow &&
+            calendar.get(Calendar.HOUR_OF_DAY) == 0 &&
+            calendar.get(Calendar.MINUTE) == 0) {
+            text = tomorrowStr;
+        } else {
+            SimpleDateFormat dateFormat = new SimpleDateFormat("HH:mm", locale);
+            dateFormat.setTimeZone(zone);
+            text = dateFormat.format(new Date(timestamp));
+            if (isTomorrow) {
+                text += " (" + tomorrowStr + ")";
+            }
+        }
+
+        return new Formatted(timestamp, tomorrowStr, locale, zone.getID(), zone.getOffset(now), dayStart, dayEnd, text);
+    }
+}
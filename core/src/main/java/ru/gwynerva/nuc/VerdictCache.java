@@ -0,0 +1,161 @@
+package ru.gwynerva.nuc;
+
+// Fixed-capacity cache of number key to screening outcome, evicted with the CLOCK algorithm.
+//
+// Every entry is tagged with the generation it was computed in. invalidate() only bumps the generation,
+// which makes all entries stale at once, and a stale entry is never returned. Anything the cached
+// outcomes depend on (contacts, patterns, spam list, settings, state) must call invalidate() after the
+// new data is visible to screening.
+//
+// get() and put() are called on the screening thread only, invalidate() from any thread.
+public final class VerdictCache {
+    public static final int MISS = Integer.MIN_VALUE;
+
+    private final int capacity;
+    private final long[] keys;
+    private final int[] values;
+    private final int[] generations;
+    private final boolean[] referenced;
+    private int hand = 0;
+    private int size = 0;
+
+    // Open addressing index of key to slot + 1, 0 is empty. Twice the capacity, so probes stay short.
+    private final int[] index;
+    private final int indexMask;
+
+    private volatile int generation = 0;
+
+    // Statistics, written by the screening thread only
+    private long hits = 0;
+    private long misses = 0;
+    private long staleMisses = 0;
+
+    public VerdictCache(int capacity) {
+        this.capacity = capacity;
+        keys = new long[capacity];
+        values = new int[capacity];
+        generations = new int[capacity];
+        referenced = new boolean[capacity];
+        index = new int[Integer.highestOneBit(Math.max(capacity, 1) * 4 - 1)];
+        indexMask = index.length - 1;
+    }
+
+    public int generation() {
+        return generation;
+    }
+
+    public synchronized void invalidate() {
+        generation++;
+    }
+
+    // Value stored for the key in the given generation, MISS if there is none
+    public int get(long key, int generation) {
+        int slot = find(key);
+        if (slot < 0) {
+            misses++;
+            return MISS;
+        }
+        if (generations[slot] != generation) {
+            staleMisses++;
+            return MISS;
+        }
+
+        referenced[slot] = true;
+        hits++;
+        return values[slot];
+    }
+
+    public void put(long key, int generation, int value) {
+        int slot = find(key);
+        if (slot < 0) {
+            slot = size < capacity ? size++ : evict();
+            keys[slot] = key;
+            insertIndex(key, slot);
+        }
+        values[slot] = value;
+        generations[slot] = generation;
+        referenced[slot] = true;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    // Keys that were not cached at all
+    public long getMisses() {
+        return misses;
+    }
+
+    // Keys that were cached in an older generation
+    public long getStaleMisses() {
+        return staleMisses;
+    }
+
+    // Frees a slot: the hand clears reference bits until it finds an entry that was not used since the last pass
+    private int evict() {
+        while (referenced[hand]) {
+            referenced[hand] = false;
+            hand = (hand + 1) % capacity;
+        }
+        int slot = hand;
+        hand = (hand + 1) % capacity;
+        removeIndex(keys[slot]);
+        return slot;
+    }
+
+    //
+    // Index
+    //
+
+    private int find(long key) {
+        for (int i = hash(key); ; i = (i + 1) & indexMask) {
+            int entry = index[i];
+            if (entry == 0) {
+                return -1;
+            }
+            if (keys[entry - 1] == key) {
+                return entry - 1;
+            }
+        }
+    }
+
+    private void insertIndex(long key, int slot) {
+        int i = hash(key);
+        while (index[i] != 0) {
+            i = (i + 1) & indexMask;
+        }
+        index[i] = slot + 1;
+    }
+
+    // Linear probing removal that moves later entries back, so lookups never stop at a hole too early
+    private void removeIndex(long key) {
+        int i = hash(key);
+        while (keys[index[i] - 1] != key) {
+            i = (i + 1) & indexMask;
+        }
+
+        int hole = i;
+        for (int j = (hole + 1) & indexMask; index[j] != 0; j = (j + 1) & indexMask) {
+            int home = hash(keys[index[j] - 1]);
+            // Move the entry if its home is not between the hole and its current position
+            if (((j - home) & indexMask) >= ((j - hole) & indexMask)) {
+                index[hole] = index[j];
+                hole = j;
+            }
+        }
+        index[hole] = 0;
+    }
+
+    private int hash(long key) {
+        long mixed = key * 0x9e3779b97f4a7c15L;
+        return (int) (mixed >>> 32) & indexMask;
+    }
+}
@@ -21,3 +21,5 @@ dependencyResolutionManagement {
 
 rootProject.name = "No Unknown Call"
 include(":app")
+include(":core")
+include(":benchmark")